@@ -100,6 +100,27 @@ tasks {
         }
     }
 
+    test {
+        // performance tests take long and depend on the machine, they are run by the performanceTest task
+        exclude("**/*PerformanceTest.class")
+    }
+
+    register<Test>("performanceTest") {
+        description = "Runs the performance tests."
+        group = "verification"
+        testClassesDirs = sourceSets.test.get().output.classesDirs
+        classpath = sourceSets.test.get().runtimeClasspath
+        include("**/*PerformanceTest.class")
+        // the tests print the measured bytes next to the timings
+        testLogging {
+            showStandardStreams = true
+        }
+    }
+
+    check {
+        dependsOn("performanceTest")
+    }
+
     // Configure UI tests plugin
     // Read more: https://github.com/JetBrains/intellij-ui-test-robot
     runIdeForUiTests {
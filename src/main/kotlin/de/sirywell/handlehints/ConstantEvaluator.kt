@@ -0,0 +1,58 @@
+package de.sirywell.handlehints
+
+import com.intellij.psi.*
+import com.intellij.psi.util.PsiUtil
+import de.sirywell.handlehints.dfa.AnalysisContext
+import de.sirywell.handlehints.dfa.AnalysisMetrics
+
+/**
+ * Evaluates constant values of expressions.
+ *
+ * Literals, class literals, compile-time constants and enum constants are evaluated on the PSI directly.
+ * Only if that fails, the data flow analysis of the enclosing code is run.
+ * Within an [AnalysisContext], results are cached per expression.
+ *
+ * Integral constants of a type smaller than `int` are widened to [Int], as callers expect the arguments
+ * of methods taking an `int` or `long` to be [Int] or [Long], no matter the type of the argument expression.
+ */
+object ConstantEvaluator {
+    private val NO_CONSTANT = Any()
+
+    fun <T> constantOf(expression: PsiExpression, type: Class<T>): T? {
+        val cache = AnalysisContext.current()?.constants
+        val value = if (cache == null) {
+            evaluate(expression)
+        } else {
+            cache.getOrPut(expression) { evaluate(expression) ?: NO_CONSTANT }
+        }
+        return if (value !== NO_CONSTANT && type.isInstance(value)) type.cast(value) else null
+    }
+
+    private fun evaluate(expression: PsiExpression): Any? {
+        val psiConstant = evaluateOnPsi(expression)
+        if (psiConstant != null) {
+            AnalysisMetrics.increment(AnalysisMetrics.Counter.CONSTANTS_FROM_PSI)
+            return widen(psiConstant)
+        }
+        AnalysisMetrics.increment(AnalysisMetrics.Counter.CONSTANTS_FROM_DATAFLOW)
+        return widen(expression.getDfType()?.getConstantOfType(Any::class.java))
+    }
+
+    private fun widen(value: Any?): Any? {
+        return when (value) {
+            is Byte -> value.toInt()
+            is Short -> value.toInt()
+            is Char -> value.code
+            else -> value
+        }
+    }
+
+    private fun evaluateOnPsi(expression: PsiExpression): Any? {
+        when (val unwrapped = PsiUtil.skipParenthesizedExprDown(expression)) {
+            is PsiClassObjectAccessExpression -> return unwrapped.operand.type
+            is PsiReferenceExpression -> (unwrapped.resolve() as? PsiEnumConstant)?.let { return it }
+        }
+        return JavaPsiFacade.getInstance(expression.project).constantEvaluationHelper
+            .computeConstantExpression(expression)
+    }
+}
@@ -0,0 +1,87 @@
+package de.sirywell.handlehints
+
+import com.intellij.concurrency.JobLauncher
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiField
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiMember
+import com.intellij.util.containers.ContainerUtil
+import de.sirywell.handlehints.dfa.MhTypeProvider
+import de.sirywell.handlehints.inspection.ProblemRecord
+import de.sirywell.handlehints.type.TypeLatticeElement
+
+/**
+ * A view on the [TypeTable]s of all code blocks in a file.
+ *
+ * Code blocks are analysed lazily and independently of each other, see [MhTypeProvider].
+ * Every file is analysed, there is no index to skip files up front: objects of the analysed types
+ * can be obtained from other classes and used without mentioning their type or any method specific to them,
+ * e.g., `var mh = Handles.get(); mh.invoke()`, so no check on the text of a file is sound.
+ *
+ * Looking up a single element only analyses the code block it is in. Consumers that visit the whole file
+ * call [prefetch] first, so the code blocks are analysed concurrently instead of one after another.
+ */
+class FileTypeData private constructor() {
+    companion object {
+        fun create() = FileTypeData()
+    }
+
+    // weak keys, so members that were replaced by a reparse are not kept alive
+    private val blocks = ContainerUtil.createConcurrentWeakMap<PsiMember, TypeTable>()
+
+    inline operator fun <reified T : TypeLatticeElement<*>> invoke(element: PsiElement) = get(element) as? T
+    operator fun get(element: PsiElement): TypeLatticeElement<*>? {
+        if (element is PsiField) {
+            return MhTypeProvider.fieldType(element)
+        }
+        val member = MhTypeProvider.analysedMemberOf(element) ?: return null
+        return typeTableFor(member)[member, element]
+    }
+
+    fun problemFor(element: PsiElement): ProblemRecord? {
+        val member = MhTypeProvider.analysedMemberOf(element) ?: return null
+        return typeTableFor(member).problemFor(member, element)
+    }
+
+    /**
+     * Calls [action] for each problem in [file], without visiting the elements that don't have one.
+     */
+    fun forEachProblem(file: PsiFile, action: (PsiElement, ProblemRecord) -> Unit) {
+        val members = MhTypeProvider.analysedMembersOf(file)
+        analyseAll(members)
+        for (member in members) {
+            typeTableFor(member).forEachProblem(member, action)
+        }
+    }
+
+    /**
+     * Analyses all code blocks of [file] that aren't analysed yet.
+     */
+    fun prefetch(file: PsiFile) {
+        analyseAll(MhTypeProvider.analysedMembersOf(file))
+    }
+
+    /**
+     * Analyses all of [members] that aren't analysed yet.
+     *
+     * Members that write final fields are analysed first, as the analysis of the others reads their results.
+     * The remaining members are independent of each other, so they are analysed concurrently,
+     * under the read action of the calling thread.
+     */
+    private fun analyseAll(members: List<PsiMember>) {
+        val (writers, others) = members.partition { MhTypeProvider.writesFinalFields(it) }
+        writers.forEach { typeTableFor(it) }
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+            others.filter { it !in blocks },
+            ProgressManager.getInstance().progressIndicator
+        ) {
+            typeTableFor(it)
+            true
+        }
+    }
+
+    private fun typeTableFor(member: PsiMember): TypeTable {
+        return blocks[member] ?: MhTypeProvider.typeTableFor(member).also { blocks.putIfAbsent(member, it) }
+    }
+}
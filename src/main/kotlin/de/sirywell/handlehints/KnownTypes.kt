@@ -0,0 +1,53 @@
+package de.sirywell.handlehints
+
+import com.intellij.openapi.components.Service
+import com.intellij.openapi.components.service
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiClassType
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiType
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.util.containers.ContainerUtil
+
+/**
+ * Caches the types of the invoke and foreign APIs per resolve scope.
+ *
+ * The cache is dropped whenever the project roots change, e.g. when a module gets a different JDK.
+ * Scopes are weakly referenced, so the types of scopes that aren't used anymore are dropped earlier.
+ */
+@Service(Service.Level.PROJECT)
+class KnownTypes(private val project: Project) {
+    companion object {
+        fun of(context: PsiElement): Types = context.project.service<KnownTypes>().typesFor(context.resolveScope)
+    }
+
+    private val typesByScope = CachedValuesManager.getManager(project).createCachedValue {
+        CachedValueProvider.Result.create(
+            ContainerUtil.createConcurrentWeakMap<GlobalSearchScope, Types>(),
+            ProjectRootModificationTracker.getInstance(project)
+        )
+    }
+
+    fun typesFor(scope: GlobalSearchScope): Types = typesByScope.value.computeIfAbsent(scope) { Types(it) }
+
+    inner class Types internal constructor(scope: GlobalSearchScope) {
+        val methodType = type("java.lang.invoke.MethodType", scope)
+        val methodHandle = type("java.lang.invoke.MethodHandle", scope)
+        val varHandle = type("java.lang.invoke.VarHandle", scope)
+        val pathElement = type("java.lang.foreign.MemoryLayout.PathElement", scope)
+        val functionDescriptor = type("java.lang.foreign.FunctionDescriptor", scope)
+        val memoryLayouts = MEMORY_LAYOUT_TYPE_NAMES.map { type(it, scope) }.toSet()
+
+        /** The classes of all types above that exist in the scope */
+        val relatedClasses: Set<PsiClass> =
+            (listOf(methodType, methodHandle, varHandle, pathElement, functionDescriptor) + memoryLayouts)
+                .mapNotNullTo(HashSet()) { it.resolve() }
+
+        private fun type(qName: String, scope: GlobalSearchScope): PsiClassType =
+            PsiType.getTypeByName(qName, project, scope)
+    }
+}
@@ -1,6 +1,7 @@
 package de.sirywell.handlehints
 
 import com.intellij.DynamicBundle
+import de.sirywell.handlehints.inspection.ProblemMessage
 import org.jetbrains.annotations.NonNls
 import org.jetbrains.annotations.PropertyKey
 
@@ -14,6 +15,13 @@ object MethodHandleBundle : DynamicBundle(BUNDLE) {
     fun message(@PropertyKey(resourceBundle = BUNDLE) key: String, vararg params: Any) =
         getMessage(key, *params)
 
+    /**
+     * Returns the message for [key], formatted only when the problem is registered, see [ProblemMessage].
+     */
+    @JvmStatic
+    fun problemMessage(@PropertyKey(resourceBundle = BUNDLE) key: String, vararg params: Any) =
+        ProblemMessage.of(key, params)
+
     @Suppress("SpreadOperator", "unused")
     @JvmStatic
     fun messagePointer(@PropertyKey(resourceBundle = BUNDLE) key: String, vararg params: Any) =
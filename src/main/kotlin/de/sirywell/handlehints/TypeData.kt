@@ -1,30 +1,55 @@
 package de.sirywell.handlehints
 
-import com.intellij.codeInspection.ProblemsHolder
+import com.intellij.openapi.util.Key
 import com.intellij.openapi.util.ModificationTracker
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiMember
+import com.intellij.psi.util.CachedValue
+import com.intellij.psi.util.CachedValueProvider
 import com.intellij.psi.util.CachedValuesManager
+import com.intellij.psi.util.PsiModificationTracker
 import de.sirywell.handlehints.dfa.MhTypeProvider
-import de.sirywell.handlehints.type.MethodHandleType
+import de.sirywell.handlehints.inspection.ProblemRecord
 import de.sirywell.handlehints.type.TypeLatticeElement
+import java.util.*
 
+/**
+ * The analysis results of a single code block, while it is being analysed.
+ *
+ * Results are recorded per element. Once the analysis is done, they are frozen into a [TypeTable],
+ * which does not reference the analysed PSI anymore.
+ */
 class TypeData : ModificationTracker by ModificationTracker.NEVER_CHANGED {
     companion object {
-        fun forFile(file: PsiFile): TypeData {
-            return CachedValuesManager.getManager(file.project)
-                .getParameterizedCachedValue(
+        private val FILE_CACHE_KEY = Key<CachedValue<FileTypeData>>("HandleHints.FileCache")
+
+        fun forFile(file: PsiFile): FileTypeData {
+            return CachedValuesManager.getCachedValue(file, FILE_CACHE_KEY) {
+                // edits in other files only matter if they change declarations, e.g. field types or method signatures
+                CachedValueProvider.Result.create(
+                    FileTypeData.create(),
                     file,
-                    MhTypeProvider.CACHE_KEY,
-                    MhTypeProvider,
-                    true,
-                    file
+                    @Suppress("DEPRECATION")
+                    PsiModificationTracker.getInstance(file.project).javaStructureModificationTracker
                 )
+            }
+        }
+
+        /**
+         * Drops the cached analysis results of [file], e.g., once a batch run has reported its problems.
+         * Facts about fields are only shared within a file, so no other file depends on them.
+         */
+        fun release(file: PsiFile) {
+            file.putUserData(FILE_CACHE_KEY, null)
+            for (member in MhTypeProvider.analysedMembersOf(file)) {
+                member.putUserData(MhTypeProvider.CACHE_KEY, null)
+            }
         }
     }
 
-    private val map = mutableMapOf<PsiElement, TypeLatticeElement<*>>()
-    private val problems = mutableMapOf<PsiElement, (ProblemsHolder) -> Unit>()
+    private val map = IdentityHashMap<PsiElement, TypeLatticeElement<*>>()
+    private val problems = IdentityHashMap<PsiElement, ProblemRecord>()
 
     inline operator fun <reified T : TypeLatticeElement<*>> invoke(element: PsiElement) = get(element) as? T
     operator fun get(element: PsiElement) = map[element]
@@ -32,9 +57,22 @@ class TypeData : ModificationTracker by ModificationTracker.NEVER_CHANGED {
         map[element] = type
     }
 
-    fun reportProblem(element: PsiElement, reporter: (ProblemsHolder) -> Unit) {
-        problems[element] = reporter
+    fun reportProblem(element: PsiElement, problem: ProblemRecord) {
+        problems[element] = problem
+    }
+
+    fun problemFor(element: PsiElement): ProblemRecord? = problems[element]
+
+    /**
+     * Records all results of [other], replacing the results recorded for the same elements before.
+     */
+    fun addAll(other: TypeData) {
+        map.putAll(other.map)
+        problems.putAll(other.problems)
     }
 
-    fun problemFor(element: PsiElement): ((ProblemsHolder) -> Unit)? = problems[element]
+    /**
+     * Returns the recorded results of the code block of [member].
+     */
+    fun freeze(member: PsiMember) = TypeTable.create(member, map, problems)
 }
@@ -0,0 +1,151 @@
+package de.sirywell.handlehints
+
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiField
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiMember
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.util.containers.ContainerUtil
+import de.sirywell.handlehints.inspection.ProblemRecord
+import de.sirywell.handlehints.type.ExactType
+import de.sirywell.handlehints.type.TypeLatticeElement
+
+/**
+ * The analysis results of a single code block, detached from the PSI they were computed on.
+ *
+ * Results are cached for as long as the analysed member does not change, and a cached result must not keep
+ * the PSI of an outdated version of the code reachable. Therefore, elements are identified by their text range
+ * relative to the analysed member and their element type. Fields declared outside the member, and elements
+ * without a text range, e.g., light elements, are kept in maps with weak keys.
+ * The stored types are interned and shared with other code blocks, so they don't refer to the PSI of a code block
+ * either. The exception are exact types of type parameters and local classes, which keep the PSI type they
+ * were created from, see [ExactType.invoke].
+ *
+ * The entries with a problem are additionally indexed in offset order, so all problems of a code block
+ * can be found without visiting the elements that don't have one.
+ */
+class TypeTable private constructor(
+    // sorted, the relative start offset in the upper and the text length in the lower half
+    private val ranges: LongArray,
+    private val kinds: ShortArray,
+    private val types: Array<TypeLatticeElement<*>?>,
+    private val problems: Array<ProblemRecord?>,
+    // the ascending indexes of the entries with a problem
+    private val problemIndexes: IntArray,
+    private val fieldTypes: Map<PsiField, TypeLatticeElement<*>>,
+    private val unanchored: Map<PsiElement, Int>,
+) {
+    companion object {
+        fun create(
+            member: PsiMember,
+            types: Map<PsiElement, TypeLatticeElement<*>>,
+            problems: Map<PsiElement, ProblemRecord>
+        ): TypeTable {
+            val base = member.textRange.startOffset
+            val fieldTypes = ContainerUtil.createConcurrentWeakMap<PsiField, TypeLatticeElement<*>>()
+            val anchored = ArrayList<Entry>(types.size + problems.size)
+            val unanchored = ArrayList<PsiElement>()
+            for (element in types.keys + problems.keys) {
+                if (element is PsiField && !PsiTreeUtil.isAncestor(member, element, false)) {
+                    // fields of different classes in the file can share a name, e.g., of nested or local classes
+                    types[element]?.let { fieldTypes[element] = it }
+                    continue
+                }
+                val range = range(element, base)
+                val kind = kind(element)
+                if (range == null || kind == null) {
+                    unanchored.add(element)
+                } else {
+                    anchored.add(Entry(range, kind, types[element], problems[element]))
+                }
+            }
+            anchored.sortWith(compareBy<Entry> { it.range }.thenBy { it.kind })
+            // the unanchored entries are stored behind the anchored ones
+            val entries = anchored + unanchored.map { Entry(0, 0, types[it], problems[it]) }
+            val unanchoredIndexes = ContainerUtil.createConcurrentWeakMap<PsiElement, Int>()
+            unanchored.forEachIndexed { index, element -> unanchoredIndexes[element] = anchored.size + index }
+            return TypeTable(
+                LongArray(anchored.size) { anchored[it].range },
+                ShortArray(anchored.size) { anchored[it].kind },
+                Array(entries.size) { entries[it].type },
+                Array(entries.size) { entries[it].problem },
+                entries.indices.filter { entries[it].problem != null }.toIntArray(),
+                fieldTypes,
+                unanchoredIndexes
+            )
+        }
+
+        private fun range(element: PsiElement, base: Int): Long? {
+            val range = element.textRange ?: return null
+            return ((range.startOffset - base).toLong() shl 32) or range.length.toLong()
+        }
+
+        private fun kind(element: PsiElement): Short? = element.node?.elementType?.index
+    }
+
+    /**
+     * Returns the type of [element], which belongs to the code block of [member].
+     */
+    operator fun get(member: PsiMember, element: PsiElement): TypeLatticeElement<*>? {
+        if (element is PsiField && !PsiTreeUtil.isAncestor(member, element, false)) {
+            return fieldTypes[element]
+        }
+        return types.getOrNull(indexOf(member, element))
+    }
+
+    fun problemFor(member: PsiMember, element: PsiElement): ProblemRecord? {
+        return problems.getOrNull(indexOf(member, element))
+    }
+
+    /**
+     * Calls [action] for each problem of the code block of [member], in the order of their locations.
+     */
+    fun forEachProblem(member: PsiMember, action: (PsiElement, ProblemRecord) -> Unit) {
+        for (index in problemIndexes) {
+            val element = elementAt(member, index) ?: continue
+            action(element, problems[index]!!)
+        }
+    }
+
+    // the element of the entry at index, or null if it can't be found anymore
+    private fun elementAt(member: PsiMember, index: Int): PsiElement? {
+        if (index >= ranges.size) {
+            return unanchored.entries.firstOrNull { it.value == index }?.key
+        }
+        val start = member.textRange.startOffset + (ranges[index] ushr 32).toInt()
+        val length = ranges[index].toInt()
+        // the element is the leaf at its start offset or one of its parents starting at the same offset
+        var element = member.containingFile.findElementAt(start)
+        while (element != null && element !is PsiFile) {
+            val range = element.textRange ?: return null
+            if (range.startOffset != start || range.length > length) return null
+            if (range.length == length && kind(element) == kinds[index]) return element
+            element = element.parent
+        }
+        return null
+    }
+
+    private fun indexOf(member: PsiMember, element: PsiElement): Int {
+        val kind = kind(element)
+        val range = range(element, member.textRange.startOffset)
+        if (kind == null || range == null) {
+            return unanchored[element] ?: -1
+        }
+        var index = ranges.binarySearch(range)
+        if (index < 0) return -1
+        // several elements can share a range, find the first one
+        while (index > 0 && ranges[index - 1] == range) index--
+        while (index < ranges.size && ranges[index] == range) {
+            if (kinds[index] == kind) return index
+            index++
+        }
+        return -1
+    }
+
+    private class Entry(
+        val range: Long,
+        val kind: Short,
+        val type: TypeLatticeElement<*>?,
+        val problem: ProblemRecord?
+    )
+}
@@ -0,0 +1,139 @@
+package de.sirywell.handlehints.batch
+
+import com.intellij.codeInspection.InspectionManager
+import com.intellij.codeInspection.ProblemDescriptor
+import com.intellij.codeInspection.ProblemDescriptorBase
+import com.intellij.codeInspection.ProblemDescriptorUtil
+import com.intellij.codeInspection.ProblemsHolder
+import com.intellij.ide.highlighter.JavaFileType
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.diagnostic.ControlFlowException
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.guessProjectDir
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.search.FileTypeIndex
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.util.concurrency.AppExecutorUtil
+import de.sirywell.handlehints.TypeData
+import de.sirywell.handlehints.dfa.AnalysisMetrics
+import de.sirywell.handlehints.inspection.FileInspector
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Analyses all Java files of a project concurrently and writes their problems to a [ReportWriter].
+ *
+ * Each file is analysed in its own read action on one of [BatchOptions.threads] workers.
+ * The report of a file is written as soon as it is done, so the results of a file are not kept afterward.
+ * Once [BatchOptions.timeoutSeconds] have passed, the files not started yet are skipped.
+ * A file whose analysis fails is counted and logged, the other files are analysed nonetheless.
+ * The summary of the report includes the [AnalysisMetrics] counted during the run.
+ */
+class BatchAnalysis(private val project: Project, private val options: BatchOptions) {
+    companion object {
+        private val LOG = Logger.getInstance(BatchAnalysis::class.java)
+    }
+
+    private val projectDir = project.guessProjectDir()
+
+    /**
+     * The number of files in each state once the run is done.
+     */
+    class Result(val analysed: Int, val skipped: Int, val failed: Int)
+
+    fun run(writer: ReportWriter): Result {
+        val start = System.nanoTime()
+        // the counters are cumulative, only the increase during this run is reported
+        val metricsBefore = AnalysisMetrics.snapshot()
+        val deadline = options.timeoutSeconds?.let { start + TimeUnit.SECONDS.toNanos(it) }
+        val files = ReadAction.compute<Collection<VirtualFile>, RuntimeException> {
+            FileTypeIndex.getFiles(JavaFileType.INSTANCE, GlobalSearchScope.projectScope(project))
+        }
+        val analysed = AtomicInteger()
+        val skipped = AtomicInteger()
+        val failed = AtomicInteger()
+        val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "HandleHints Batch Analysis",
+            options.threads
+        )
+        val futures = files.map { file ->
+            executor.submit {
+                if (deadline != null && System.nanoTime() > deadline) {
+                    skipped.incrementAndGet()
+                    return@submit
+                }
+                try {
+                    ReadAction.compute<FileReport?, RuntimeException> {
+                        PsiManager.getInstance(project).findFile(file)?.let { analyse(it) }
+                    }?.let { writer.write(it) }
+                    analysed.incrementAndGet()
+                } catch (e: Exception) {
+                    if (e is ControlFlowException) throw e
+                    LOG.warn("error while analysing ${file.path}", e)
+                    failed.incrementAndGet()
+                }
+            }
+        }
+        try {
+            for (future in futures) {
+                try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    // control flow exceptions, e.g., cancellations, are not logged by the workers
+                    LOG.warn("analysis of a file was aborted: ${e.cause}")
+                    failed.incrementAndGet()
+                }
+            }
+        } finally {
+            executor.shutdown()
+            val metrics = AnalysisMetrics.snapshot().mapValues { (counter, value) -> value - metricsBefore.getValue(counter) }
+            writer.finish(analysed.get(), skipped.get(), failed.get(), millisSince(start), metrics)
+        }
+        return Result(analysed.get(), skipped.get(), failed.get())
+    }
+
+    private fun analyse(file: PsiFile): FileReport {
+        val start = System.nanoTime()
+        val manager = InspectionManager.getInstance(project)
+        val invocationHolder = ProblemsHolder(manager, file, false)
+        val mergeHolder = ProblemsHolder(manager, file, false)
+        try {
+            FileInspector.inspect(file, invocationHolder, mergeHolder)
+        } finally {
+            TypeData.release(file)
+        }
+        val millis = millisSince(start)
+        val path = projectDir?.let { VfsUtilCore.getRelativePath(file.virtualFile, it) } ?: file.virtualFile.path
+        val text = file.viewProvider.contents
+        val problems = invocationHolder.results.map { report(FileInspector.INVOCATION, path, text, it) } +
+                mergeHolder.results.map { report(FileInspector.MERGE, path, text, it) }
+        return FileReport(path, millis, problems.sortedBy { it.line })
+    }
+
+    private fun report(
+        inspection: String,
+        path: String,
+        text: CharSequence,
+        descriptor: ProblemDescriptor
+    ): ReportedProblem {
+        val range = (descriptor as? ProblemDescriptorBase)?.textRange ?: descriptor.psiElement?.textRange
+        val position = StringUtil.offsetToLineColumn(text, range?.startOffset ?: 0)
+        return ReportedProblem(
+            inspection,
+            path,
+            position.line,
+            position.column,
+            range?.length ?: 0,
+            ProblemDescriptorUtil.renderDescriptionMessage(descriptor, descriptor.psiElement),
+            descriptor.highlightType
+        )
+    }
+
+    private fun millisSince(start: Long) = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+}
@@ -0,0 +1,54 @@
+package de.sirywell.handlehints.batch
+
+import com.intellij.ide.impl.ProjectUtil
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.ApplicationStarter
+import com.intellij.openapi.application.ex.ApplicationEx
+import com.intellij.openapi.application.ex.ApplicationManagerEx
+import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.project.ProjectManager
+
+/**
+ * Runs the checks of HandleHints on all Java files of a project without an interactive IDE,
+ * e.g., on a CI build agent. See [BatchOptions.USAGE] for the arguments.
+ *
+ * The exit status is 0 if all files were analysed, 1 if the arguments are invalid or the project can't be opened,
+ * and 2 if files failed or were skipped due to the timeout.
+ * The application is shut down regularly, so its caches and indexes are saved.
+ */
+class BatchAnalysisStarter : ApplicationStarter {
+    companion object {
+        private const val EXIT_INVALID = 1
+        private const val EXIT_INCOMPLETE = 2
+    }
+
+    override val requiredModality get() = ApplicationStarter.NOT_IN_EDT
+
+    override fun main(args: List<String>) {
+        // the first argument is the command name
+        val status = analyse(args.drop(1))
+        ApplicationManagerEx.getApplicationEx().exit(ApplicationEx.FORCE_EXIT or ApplicationEx.EXIT_CONFIRMED, status)
+    }
+
+    private fun analyse(args: List<String>): Int {
+        val options = BatchOptions.parse(args)
+        if (options == null) {
+            System.err.println(BatchOptions.USAGE)
+            return EXIT_INVALID
+        }
+        val project = ProjectUtil.openOrImport(options.projectPath, null, false)
+        if (project == null) {
+            System.err.println("Cannot open project at ${options.projectPath}")
+            return EXIT_INVALID
+        }
+        try {
+            DumbService.getInstance(project).waitForSmartMode()
+            val result = ReportWriter.create(options.format, options.output).use { BatchAnalysis(project, options).run(it) }
+            return if (result.failed > 0 || result.skipped > 0) EXIT_INCOMPLETE else 0
+        } finally {
+            ApplicationManager.getApplication().invokeAndWait {
+                ProjectManager.getInstance().closeAndDispose(project)
+            }
+        }
+    }
+}
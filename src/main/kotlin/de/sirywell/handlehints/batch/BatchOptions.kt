@@ -0,0 +1,46 @@
+package de.sirywell.handlehints.batch
+
+import java.nio.file.Path
+
+/**
+ * The command line options of [BatchAnalysisStarter].
+ */
+class BatchOptions(
+    val projectPath: Path,
+    val output: Path,
+    val format: ReportFormat,
+    val threads: Int,
+    /** The time after which no further files are analysed, or `null` for no limit */
+    val timeoutSeconds: Long?,
+) {
+    companion object {
+        const val USAGE = "Usage: handlehints <project path> <report file> " +
+                "[--format=jsonl|sarif] [--threads=<count>] [--timeout=<seconds>]"
+
+        /**
+         * Parses the arguments following the command name, or returns `null` if they are invalid.
+         */
+        fun parse(args: List<String>): BatchOptions? {
+            val (flags, positional) = args.partition { it.startsWith("--") }
+            if (positional.size != 2) return null
+            var format = ReportFormat.JSON_LINES
+            var threads = Runtime.getRuntime().availableProcessors()
+            var timeoutSeconds: Long? = null
+            for (flag in flags) {
+                val value = flag.substringAfter('=', "")
+                when (flag.substringBefore('=')) {
+                    "--format" -> format = ReportFormat.entries.find { it.id == value } ?: return null
+                    "--threads" -> threads = value.toIntOrNull()?.takeIf { it > 0 } ?: return null
+                    "--timeout" -> timeoutSeconds = value.toLongOrNull()?.takeIf { it > 0 } ?: return null
+                    else -> return null
+                }
+            }
+            return BatchOptions(Path.of(positional[0]), Path.of(positional[1]), format, threads, timeoutSeconds)
+        }
+    }
+}
+
+enum class ReportFormat(val id: String) {
+    JSON_LINES("jsonl"),
+    SARIF("sarif"),
+}
@@ -0,0 +1,184 @@
+package de.sirywell.handlehints.batch
+
+import com.google.gson.stream.JsonWriter
+import com.intellij.codeInspection.ProblemHighlightType
+import de.sirywell.handlehints.dfa.AnalysisMetrics.Counter
+import java.io.Closeable
+import java.io.StringWriter
+import java.io.Writer
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * A problem as it is written to a report. Lines and columns start at 0.
+ */
+class ReportedProblem(
+    val inspection: String,
+    val path: String,
+    val line: Int,
+    val column: Int,
+    val length: Int,
+    val message: String,
+    val highlightType: ProblemHighlightType,
+)
+
+/**
+ * The analysis results of a single file.
+ */
+class FileReport(val path: String, val millis: Long, val problems: List<ReportedProblem>)
+
+/**
+ * Writes the results of a [BatchAnalysis] to a file, as soon as the result of a file is known.
+ *
+ * Files are analysed concurrently, so writing a file report is synchronized.
+ */
+abstract class ReportWriter(protected val out: Writer) : Closeable {
+    companion object {
+        fun create(format: ReportFormat, path: Path): ReportWriter {
+            val out = Files.newBufferedWriter(path)
+            return when (format) {
+                ReportFormat.JSON_LINES -> JsonLinesReportWriter(out)
+                ReportFormat.SARIF -> SarifReportWriter(out)
+            }
+        }
+    }
+
+    abstract fun write(report: FileReport)
+
+    /**
+     * Writes the totals of the run, after all file reports, and the [metrics] counted during the run.
+     */
+    abstract fun finish(analysed: Int, skipped: Int, failed: Int, millis: Long, metrics: Map<Counter, Long>)
+
+    protected fun JsonWriter.metrics(metrics: Map<Counter, Long>) {
+        name("metrics").beginObject()
+        for ((counter, value) in metrics) {
+            name(counter.name).value(value)
+        }
+        endObject()
+    }
+
+    override fun close() {
+        out.close()
+    }
+}
+
+/**
+ * Writes one JSON object per line: a `problem` object for each problem, followed by a `file` object
+ * with the timing of the file, and a `summary` object with the totals and metrics at the end.
+ */
+private class JsonLinesReportWriter(out: Writer) : ReportWriter(out) {
+
+    @Synchronized
+    override fun write(report: FileReport) {
+        for (problem in report.problems) {
+            line {
+                name("type").value("problem")
+                name("inspection").value(problem.inspection)
+                name("path").value(problem.path)
+                name("line").value(problem.line + 1)
+                name("column").value(problem.column + 1)
+                name("length").value(problem.length)
+                name("severity").value(problem.highlightType.name)
+                name("message").value(problem.message)
+            }
+        }
+        line {
+            name("type").value("file")
+            name("path").value(report.path)
+            name("millis").value(report.millis)
+            name("problems").value(report.problems.size)
+        }
+    }
+
+    @Synchronized
+    override fun finish(analysed: Int, skipped: Int, failed: Int, millis: Long, metrics: Map<Counter, Long>) {
+        line {
+            name("type").value("summary")
+            name("analysed").value(analysed)
+            name("skipped").value(skipped)
+            name("failed").value(failed)
+            name("millis").value(millis)
+            metrics(metrics)
+        }
+    }
+
+    private inline fun line(content: JsonWriter.() -> Unit) {
+        val line = StringWriter()
+        JsonWriter(line).apply {
+            beginObject()
+            content()
+            endObject()
+        }
+        out.write(line.toString())
+        out.write("\n")
+    }
+}
+
+/**
+ * Writes a SARIF 2.1.0 log with a single run. Results are streamed,
+ * the totals, metrics and timings of the files are added as properties of the run at the end.
+ */
+private class SarifReportWriter(out: Writer) : ReportWriter(out) {
+    private val json = JsonWriter(out).apply { setIndent(" ") }
+    private val timings = mutableListOf<Pair<String, Long>>()
+
+    init {
+        json.beginObject()
+        json.name("version").value("2.1.0")
+        json.name("\$schema").value("https://json.schemastore.org/sarif-2.1.0.json")
+        json.name("runs").beginArray().beginObject()
+        json.name("tool").beginObject().name("driver").beginObject()
+        json.name("name").value("HandleHints")
+        json.endObject().endObject()
+        json.name("results").beginArray()
+    }
+
+    @Synchronized
+    override fun write(report: FileReport) {
+        for (problem in report.problems) {
+            json.beginObject()
+            json.name("ruleId").value(problem.inspection)
+            json.name("level").value(level(problem.highlightType))
+            json.name("message").beginObject().name("text").value(problem.message).endObject()
+            json.name("locations").beginArray().beginObject()
+            json.name("physicalLocation").beginObject()
+            json.name("artifactLocation").beginObject().name("uri").value(problem.path).endObject()
+            json.name("region").beginObject()
+            json.name("startLine").value(problem.line + 1)
+            json.name("startColumn").value(problem.column + 1)
+            json.name("charLength").value(problem.length)
+            json.endObject()
+            json.endObject()
+            json.endObject().endArray()
+            json.endObject()
+        }
+        timings.add(report.path to report.millis)
+    }
+
+    @Synchronized
+    override fun finish(analysed: Int, skipped: Int, failed: Int, millis: Long, metrics: Map<Counter, Long>) {
+        json.endArray()
+        json.name("properties").beginObject()
+        json.name("analysed").value(analysed)
+        json.name("skipped").value(skipped)
+        json.name("failed").value(failed)
+        json.name("millis").value(millis)
+        json.metrics(metrics)
+        json.name("fileTimings").beginArray()
+        for ((path, fileMillis) in timings) {
+            json.beginObject().name("path").value(path).name("millis").value(fileMillis).endObject()
+        }
+        json.endArray()
+        json.endObject()
+        json.endObject().endArray()
+        json.endObject()
+        json.flush()
+    }
+
+    private fun level(highlightType: ProblemHighlightType) = when (highlightType) {
+        ProblemHighlightType.ERROR, ProblemHighlightType.GENERIC_ERROR -> "error"
+        ProblemHighlightType.WEAK_WARNING, ProblemHighlightType.INFORMATION -> "note"
+        else -> "warning"
+    }
+}
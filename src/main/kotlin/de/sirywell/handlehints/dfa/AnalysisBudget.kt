@@ -0,0 +1,77 @@
+package de.sirywell.handlehints.dfa
+
+import com.intellij.openapi.util.registry.Registry
+import de.sirywell.handlehints.dfa.SsaConstruction.Block
+
+/**
+ * Limits the work of analysing a single code block, so a single huge code block can't stall the analysis of a file.
+ *
+ * Each [Limit] is configured by a registry key. A budget is meant for one code block only. The [FixpointSolver]
+ * uses one budget for the rounds that find the loop header types, and another one for the final round.
+ * The time limit starts when the budget is created.
+ * Once a limit is exceeded, the budget stays exhausted.
+ */
+class AnalysisBudget private constructor(private val limits: IntArray) {
+    companion object {
+        fun fromRegistry() = AnalysisBudget(IntArray(Limit.entries.size) {
+            Limit.entries[it].let { limit -> Registry.intValue(limit.registryKey, limit.defaultValue) }
+        })
+    }
+
+    enum class Limit(val registryKey: String, val defaultValue: Int, val readableName: String) {
+        /** Read and write instructions of variables with related types */
+        INSTRUCTIONS("handlehints.analysis.budget.instructions", 50_000, "instruction"),
+
+        /** Basic blocks with reads or writes of variables with related types */
+        BLOCKS("handlehints.analysis.budget.blocks", 10_000, "block"),
+
+        /** Phis whose type had to be resolved */
+        PHIS("handlehints.analysis.budget.phis", 20_000, "phi"),
+
+        /** Wall time in milliseconds */
+        MILLIS("handlehints.analysis.budget.millis", 2_000, "time"),
+    }
+
+    private val start = System.nanoTime()
+    private val used = IntArray(Limit.entries.size)
+    private var lastBlock = -1
+
+    /**
+     * The limit that was exceeded first, or `null` if the budget isn't exhausted yet.
+     */
+    var exceeded: Limit? = null
+        private set
+
+    /**
+     * Consumes one instruction in [block] and returns whether the budget still allows to analyse it.
+     */
+    fun consumeInstruction(block: Block): Boolean {
+        if (exceeded != null) return false
+        use(Limit.INSTRUCTIONS)
+        if (block.id != lastBlock) {
+            lastBlock = block.id
+            use(Limit.BLOCKS)
+        }
+        // reading the clock on each instruction is not worth it
+        if (used[Limit.INSTRUCTIONS.ordinal] % 256 == 0) {
+            used[Limit.MILLIS.ordinal] = ((System.nanoTime() - start) / 1_000_000).toInt()
+            check(Limit.MILLIS)
+        }
+        return exceeded == null
+    }
+
+    fun consumePhi() {
+        use(Limit.PHIS)
+    }
+
+    private fun use(limit: Limit) {
+        used[limit.ordinal]++
+        check(limit)
+    }
+
+    private fun check(limit: Limit) {
+        if (exceeded == null && used[limit.ordinal] > limits[limit.ordinal]) {
+            exceeded = limit
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package de.sirywell.handlehints.dfa
+
+import com.intellij.psi.PsiExpression
+import de.sirywell.handlehints.type.JoinCache
+import de.sirywell.handlehints.type.Type
+
+/**
+ * Memo tables shared by all helpers during one analysis pass.
+ *
+ * The entries are only valid as long as the PSI does not change, so a context must not outlive a read action.
+ */
+class AnalysisContext private constructor() {
+    companion object {
+        private val current = ThreadLocal<AnalysisContext?>()
+
+        /**
+         * Returns the context of the analysis pass running on this thread, if any.
+         */
+        fun current(): AnalysisContext? = current.get()
+
+        /**
+         * Runs [action] within a context. Nested calls share the outer context.
+         */
+        fun <R> run(action: () -> R): R {
+            if (current.get() != null) return action()
+            current.set(AnalysisContext())
+            try {
+                return action()
+            } finally {
+                current.remove()
+            }
+        }
+    }
+
+    /** Constant values of expressions, with a sentinel for non-constant expressions */
+    val constants = HashMap<PsiExpression, Any>()
+
+    /** Types of expressions describing a `Class` object */
+    val reflectiveTypes = HashMap<PsiExpression, Type>()
+
+    /** Results of joins of interned types */
+    @PublishedApi
+    internal val joins = JoinCache()
+}
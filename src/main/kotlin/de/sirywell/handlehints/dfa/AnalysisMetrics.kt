@@ -0,0 +1,69 @@
+package de.sirywell.handlehints.dfa
+
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Cumulative counters about the work done by the analysis.
+ *
+ * The counters are shared by all projects and are only reset explicitly.
+ * They are meant to verify how effective shortcuts of the analysis are on real code bases.
+ * Batch runs write the counts of their run to the summary of their report, see [de.sirywell.handlehints.batch.BatchAnalysis].
+ */
+object AnalysisMetrics {
+
+    enum class Counter {
+        /** Code blocks that control flow was built for and that were analysed */
+        BLOCKS_ANALYSED,
+
+        /** Code blocks that were skipped as they can not contain any related type */
+        BLOCKS_SKIPPED,
+
+        /** Constants that were evaluated on the PSI directly */
+        CONSTANTS_FROM_PSI,
+
+        /** Constants that required running the data flow analysis */
+        CONSTANTS_FROM_DATAFLOW,
+
+        /** Lookups of reflective types that were answered from the per-analysis memo table */
+        REFLECTIVE_TYPE_HITS,
+
+        /** Lookups of reflective types that had to be computed */
+        REFLECTIVE_TYPE_MISSES,
+
+        /** Traversals of code blocks with loops that were needed to find the types at the loop headers */
+        LOOP_ROUNDS,
+
+        /** Types at loop headers that were widened to top as they did not stabilise in time */
+        LOOP_WIDENINGS,
+
+        /** Phis that were replaced by their only operand, including the phis that became trivial by that */
+        TRIVIAL_PHIS_REMOVED,
+
+        /** Analysis runs that were stopped early as they exceeded their [AnalysisBudget] */
+        BLOCKS_TRUNCATED,
+
+        /** Joins of two different interned types that were answered from the join cache */
+        JOIN_CACHE_HITS,
+
+        /** Joins of two different interned types that had to be computed */
+        JOIN_CACHE_MISSES,
+    }
+
+    private val counters = Array(Counter.entries.size) { LongAdder() }
+
+    fun increment(counter: Counter) {
+        counters[counter.ordinal].increment()
+    }
+
+    fun add(counter: Counter, delta: Long) {
+        counters[counter.ordinal].add(delta)
+    }
+
+    operator fun get(counter: Counter): Long = counters[counter.ordinal].sum()
+
+    fun snapshot(): Map<Counter, Long> = Counter.entries.associateWith { get(it) }
+
+    fun reset() {
+        counters.forEach { it.reset() }
+    }
+}
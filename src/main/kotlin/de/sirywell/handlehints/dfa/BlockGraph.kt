@@ -0,0 +1,206 @@
+package de.sirywell.handlehints.dfa
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.psi.PsiVariable
+import com.intellij.psi.controlFlow.*
+import de.sirywell.handlehints.dfa.SsaConstruction.Block
+import java.util.*
+
+/**
+ * The basic blocks of a [ControlFlow] and the edges between them.
+ *
+ * Blocks are numbered densely in the order of their instructions. Block 0 is an empty entry block
+ * that precedes the first block, so the first block can be the target of a back edge too.
+ * Each block covers a contiguous range of instruction offsets.
+ * Predecessors and successors are stored in compressed sparse row form, ordered by block id.
+ *
+ * The variables read or written in the control flow are numbered densely too,
+ * so per-variable data can be stored in arrays.
+ */
+class BlockGraph private constructor(
+    // block b covers the instructions starts[b] until starts[b + 1]
+    private val starts: IntArray,
+    private val predecessorStarts: IntArray,
+    private val predecessorIds: IntArray,
+    private val successorStarts: IntArray,
+    private val successorIds: IntArray,
+    private val variables: Array<PsiVariable>,
+) {
+    companion object {
+        val ENTRY = Block(0)
+
+        fun build(controlFlow: ControlFlow): BlockGraph {
+            val size = controlFlow.size
+            val leaders = BitSet(size)
+            leaders.set(0)
+            val leaderVisitor = LeaderVisitor(leaders)
+            controlFlow.instructions.forEachIndexed { index, instruction ->
+                ProgressManager.checkCanceled()
+                instruction.accept(leaderVisitor, index, -1)
+            }
+            // jumps to the end of the control flow don't start a block
+            leaders.clear(size, maxOf(size, leaders.length()))
+
+            val blockCount = leaders.cardinality() + 1
+            val starts = IntArray(blockCount + 1)
+            var leader = leaders.nextSetBit(0)
+            for (block in 1 until blockCount) {
+                starts[block] = leader
+                leader = leaders.nextSetBit(leader + 1)
+            }
+            starts[blockCount] = size
+            val instructionToBlock = IntArray(size)
+            for (block in 1 until blockCount) {
+                instructionToBlock.fill(block, starts[block], starts[block + 1])
+            }
+
+            val rawEdges = ControlFlowUtil.getEdges(controlFlow, 0)
+            val edges = LongArray(rawEdges.size + 1)
+            var edgeCount = 0
+            if (blockCount > 1) {
+                edges[edgeCount++] = edge(ENTRY.id, 1)
+            }
+            for (edge in rawEdges) {
+                if (edge.myTo >= size || edge.myTo < 0) {
+                    // when editing code, we seemingly can have a somewhat inconsistent state
+                    continue
+                }
+                val fromBlock = instructionToBlock[edge.myFrom]
+                val toBlock = instructionToBlock[edge.myTo]
+                // edges within a block are not part of the graph, but jumps back to its start are
+                if (fromBlock != toBlock || edge.myTo == starts[toBlock]) {
+                    edges[edgeCount++] = edge(fromBlock, toBlock)
+                }
+            }
+            edges.sort(0, edgeCount)
+            var uniqueCount = 0
+            for (i in 0 until edgeCount) {
+                if (uniqueCount == 0 || edges[uniqueCount - 1] != edges[i]) {
+                    edges[uniqueCount++] = edges[i]
+                }
+            }
+
+            val successorStarts = IntArray(blockCount + 1)
+            val predecessorStarts = IntArray(blockCount + 1)
+            for (i in 0 until uniqueCount) {
+                successorStarts[from(edges[i]) + 1]++
+                predecessorStarts[to(edges[i]) + 1]++
+            }
+            for (block in 0 until blockCount) {
+                successorStarts[block + 1] += successorStarts[block]
+                predecessorStarts[block + 1] += predecessorStarts[block]
+            }
+            val successorIds = IntArray(uniqueCount)
+            val predecessorIds = IntArray(uniqueCount)
+            val predecessorFill = predecessorStarts.copyOf(blockCount)
+            for (i in 0 until uniqueCount) {
+                // edges are sorted by their source, so successors can be written in order
+                successorIds[i] = to(edges[i])
+                predecessorIds[predecessorFill[to(edges[i])]++] = from(edges[i])
+            }
+            val variables = LinkedHashSet<PsiVariable>()
+            for (instruction in controlFlow.instructions) {
+                when (instruction) {
+                    is ReadVariableInstruction -> variables.add(instruction.variable)
+                    is WriteVariableInstruction -> variables.add(instruction.variable)
+                }
+            }
+            return BlockGraph(
+                starts,
+                predecessorStarts,
+                predecessorIds,
+                successorStarts,
+                successorIds,
+                variables.toTypedArray()
+            )
+        }
+
+        private fun edge(from: Int, to: Int) = (from.toLong() shl 32) or to.toLong()
+        private fun from(edge: Long) = (edge ushr 32).toInt()
+        private fun to(edge: Long) = edge.toInt()
+    }
+
+    val size get() = starts.size - 1
+
+    val variableCount get() = variables.size
+
+    private val variableIds = HashMap<PsiVariable, Int>(variables.size).also { ids ->
+        variables.forEachIndexed { id, variable -> ids[variable] = id }
+    }
+
+    /**
+     * The blocks reachable from [ENTRY], in reverse postorder.
+     */
+    val reversePostorder: IntArray = computeReversePostorder()
+
+    /**
+     * The targets of back edges, i.e. the blocks values of a previous loop iteration flow into.
+     */
+    val loopHeaders: List<Block> = findLoopHeaders()
+
+    fun firstInstruction(block: Block) = starts[block.id]
+
+    fun endInstruction(block: Block) = starts[block.id + 1]
+
+    fun predecessorCount(block: Block) = predecessorStarts[block.id + 1] - predecessorStarts[block.id]
+
+    fun predecessor(block: Block, index: Int) = Block(predecessorIds[predecessorStarts[block.id] + index])
+
+    /**
+     * Returns the id of [variable], or -1 if the control flow does not access it.
+     */
+    fun variableId(variable: PsiVariable) = variableIds[variable] ?: -1
+
+    fun variable(id: Int) = variables[id]
+
+    private fun computeReversePostorder(): IntArray {
+        val visited = BooleanArray(size)
+        val nextSuccessor = successorStarts.copyOf(size)
+        val stack = IntArray(size)
+        val postorder = IntArray(size)
+        var count = 0
+        var depth = 0
+        stack[depth++] = ENTRY.id
+        visited[ENTRY.id] = true
+        while (depth > 0) {
+            val block = stack[depth - 1]
+            if (nextSuccessor[block] < successorStarts[block + 1]) {
+                val successor = successorIds[nextSuccessor[block]++]
+                if (!visited[successor]) {
+                    visited[successor] = true
+                    stack[depth++] = successor
+                }
+            } else {
+                postorder[count++] = block
+                depth--
+            }
+        }
+        return IntArray(count) { postorder[count - 1 - it] }
+    }
+
+    private fun findLoopHeaders(): List<Block> {
+        // unreachable blocks keep position -1, edges from them are no back edges
+        val position = IntArray(size) { -1 }
+        reversePostorder.forEachIndexed { index, block -> position[block] = index }
+        val headers = mutableListOf<Block>()
+        for (block in reversePostorder) {
+            for (i in predecessorStarts[block] until predecessorStarts[block + 1]) {
+                if (position[predecessorIds[i]] >= position[block]) {
+                    headers.add(Block(block))
+                    break
+                }
+            }
+        }
+        return headers
+    }
+
+    private class LeaderVisitor(private val leaders: BitSet) : ControlFlowInstructionVisitor() {
+
+        override fun visitBranchingInstruction(instruction: BranchingInstruction, offset: Int, nextOffset: Int) {
+            for (i in (0 until instruction.nNext())) {
+                val next = instruction.getNext(offset, i)
+                if (next >= 0) leaders.set(next)
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package de.sirywell.handlehints.dfa
+
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.psi.PsiField
+import com.intellij.psi.PsiVariable
+import com.intellij.psi.controlFlow.ControlFlow
+import de.sirywell.handlehints.TypeData
+import de.sirywell.handlehints.dfa.SsaConstruction.Block
+import de.sirywell.handlehints.type.TypeLatticeElement
+import de.sirywell.handlehints.type.topForType
+
+private typealias LoopHeaderTypes = Map<PsiVariable, Map<Block, TypeLatticeElement<*>>>
+
+/**
+ * Analyses a code block until the types flowing around its loops are stable.
+ *
+ * A single traversal in reverse postorder assumes that back edges don't change any value.
+ * For code blocks with loops, the traversal is repeated with the types that reached each loop header
+ * at the end of the previous round, until the types at all loop headers are stable.
+ * Types that are still changing after [MAX_ROUNDS] rounds are widened to top.
+ *
+ * Only the final round records into the given [TypeData], the rounds before use a scratch [TypeData].
+ * This way, problems found on the imprecise types of an early round are not reported.
+ * A round whose types are already stable, e.g., as no related variable is carried around a loop,
+ * is not repeated, its scratch results are the final ones.
+ * The rounds before share one [AnalysisBudget]. Once it is exhausted, no further round is started,
+ * and the types that might still change at the loop headers are widened to top.
+ * The final round has a budget of its own, so it is only truncated where it runs out itself.
+ */
+class FixpointSolver(
+    private val controlFlow: ControlFlow,
+    private val typeData: TypeData,
+    private val fieldTypes: (PsiField) -> TypeLatticeElement<*>?
+) {
+    companion object {
+        private const val MAX_ROUNDS = 5
+    }
+
+    fun solve() {
+        AnalysisContext.run {
+            // the block graph does not change between rounds
+            val blocks = BlockGraph.build(controlFlow)
+            val seeds: LoopHeaderTypes =
+                if (blocks.loopHeaders.isEmpty()) emptyMap() else findLoopHeaderTypes(blocks) ?: return@run
+            val budget = AnalysisBudget.fromRegistry()
+            SsaAnalyzer(controlFlow, typeData, fieldTypes, budget, SsaConstruction(controlFlow, blocks, seeds))
+                .doTraversal()
+        }
+    }
+
+    /**
+     * Returns the loop header types for the final round,
+     * or `null` if a round was stable and its results were recorded already.
+     */
+    private fun findLoopHeaderTypes(blocks: BlockGraph): LoopHeaderTypes? {
+        val budget = AnalysisBudget.fromRegistry()
+        var seeds: LoopHeaderTypes = emptyMap()
+        repeat(MAX_ROUNDS) {
+            ProgressManager.checkCanceled()
+            AnalysisMetrics.increment(AnalysisMetrics.Counter.LOOP_ROUNDS)
+            val scratch = TypeData()
+            val ssaConstruction = SsaConstruction(controlFlow, blocks, seeds)
+            val analyzer = SsaAnalyzer(controlFlow, scratch, fieldTypes, budget, ssaConstruction)
+            analyzer.doTraversal()
+            val next = joinTypes(seeds, analyzer.loopHeaderTypes())
+            if (budget.exceeded != null) {
+                // the types of the unfinished round are top from the truncation on, so they differ from the seeds
+                return widen(seeds, next)
+            }
+            if (next == seeds) {
+                // the final round would see the same seeds and repeat this round
+                typeData.addAll(scratch)
+                return null
+            }
+            if (it == MAX_ROUNDS - 1) {
+                return widen(seeds, next)
+            }
+            seeds = next
+        }
+        return seeds
+    }
+
+    private fun joinTypes(old: LoopHeaderTypes, new: LoopHeaderTypes): LoopHeaderTypes {
+        val joined = old.mapValues { it.value.toMutableMap() }.toMutableMap()
+        for ((variable, types) in new) {
+            val headers = joined.computeIfAbsent(variable) { mutableMapOf() }
+            for ((header, type) in types) {
+                headers.merge(header, type) { a, b -> SsaAnalyzer.join(a, b) }
+            }
+        }
+        return joined
+    }
+
+    private fun widen(old: LoopHeaderTypes, new: LoopHeaderTypes): LoopHeaderTypes {
+        return new.mapValues { (variable, types) ->
+            types.mapValues { (header, type) ->
+                if (old[variable]?.get(header) == type) {
+                    type
+                } else {
+                    AnalysisMetrics.increment(AnalysisMetrics.Counter.LOOP_WIDENINGS)
+                    topForType(variable.type, variable)
+                }
+            }
+        }
+    }
+}
@@ -8,12 +8,15 @@ import com.intellij.psi.*
 import com.intellij.psi.controlFlow.*
 import com.intellij.psi.util.PsiEditorUtil
 import de.sirywell.handlehints.TypeData
+import de.sirywell.handlehints.type.TypeLatticeElement
 import java.lang.invoke.MethodHandle
 import java.lang.invoke.MethodHandles
 import java.lang.invoke.MethodType.methodType
 import javax.swing.SwingUtilities
 
-class MethodHandleElementVisitor : JavaRecursiveElementWalkingVisitor() {
+class MethodHandleElementVisitor(
+    private val fieldTypes: (PsiField) -> TypeLatticeElement<*>?
+) : JavaRecursiveElementWalkingVisitor() {
     private val typeData = TypeData()
     override fun visitMethod(method: PsiMethod) {
         if (method.body == null) return
@@ -28,18 +31,29 @@ class MethodHandleElementVisitor : JavaRecursiveElementWalkingVisitor() {
         @Suppress("UnstableApiUsage")
         if (!field.hasModifier(JvmModifier.FINAL)) return
         if (field.initializer == null) return
+        if (skipUnrelated(field)) return
         var controlFlow = buildControlFlow(field) ?: return
         controlFlow = addFieldWrite(controlFlow, field)
         applyAnalysis(controlFlow, field)
     }
 
     private fun scanElement(body: PsiElement) {
+        if (skipUnrelated(body)) return
         val controlFlow = buildControlFlow(body) ?: return
         applyAnalysis(controlFlow, body)
     }
 
+    private fun skipUnrelated(element: PsiElement): Boolean {
+        if (RelatedTypeFinder.containsRelatedType(element)) {
+            AnalysisMetrics.increment(AnalysisMetrics.Counter.BLOCKS_ANALYSED)
+            return false
+        }
+        AnalysisMetrics.increment(AnalysisMetrics.Counter.BLOCKS_SKIPPED)
+        return true
+    }
+
     private fun applyAnalysis(controlFlow: ControlFlow, body: PsiElement) {
-        SsaAnalyzer(controlFlow, typeData).doTraversal()
+        FixpointSolver(controlFlow, typeData, fieldTypes).solve()
         PsiEditorUtil.getInstance().findEditorByPsiElement(body.parent)?.let {
             SwingUtilities.invokeLater {
                 @Suppress("UnstableApiUsage")
@@ -57,8 +71,8 @@ class MethodHandleElementVisitor : JavaRecursiveElementWalkingVisitor() {
         }
     }
 
-    fun scan(param: PsiFile): TypeData {
-        runWithContext({ "file ${param.name}" }) { visitFile(param) }
+    fun scan(param: PsiMember): TypeData {
+        runWithContext({ "file ${param.containingFile.name}" }) { param.accept(this) }
         return typeData
     }
 
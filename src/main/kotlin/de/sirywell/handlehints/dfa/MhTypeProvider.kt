@@ -1,17 +1,145 @@
 package de.sirywell.handlehints.dfa
 
+import com.intellij.lang.jvm.JvmModifier
 import com.intellij.openapi.util.Key
-import com.intellij.psi.PsiFile
+import com.intellij.openapi.util.ModificationTracker
+import com.intellij.openapi.util.RecursionManager.doPreventingRecursion
+import com.intellij.psi.*
+import com.intellij.psi.impl.source.tree.CompositeElement
 import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
 import com.intellij.psi.util.ParameterizedCachedValue
 import com.intellij.psi.util.ParameterizedCachedValueProvider
 import com.intellij.psi.util.PsiModificationTracker
-import de.sirywell.handlehints.TypeData
+import de.sirywell.handlehints.TypeTable
+import de.sirywell.handlehints.type.TypeLatticeElement
 
-object MhTypeProvider : ParameterizedCachedValueProvider<TypeData, PsiFile> {
-    override fun compute(param: PsiFile): CachedValueProvider.Result<TypeData> {
-        return CachedValueProvider.Result.create(MethodHandleElementVisitor().scan(param), PsiModificationTracker.MODIFICATION_COUNT)
+/**
+ * Analyses a single code block - a method body, a class initializer or the initializer of a final field -
+ * and caches the result on the owning member.
+ *
+ * A result stays valid as long as the member itself, the Java structure, and the final fields
+ * read during the analysis stay unchanged. Editing one method therefore only re-analyses that method.
+ *
+ * The analysis checks for cancellation regularly. A cancelled analysis only discards the result of the member
+ * it was running for, the results of other members stay cached and are reused when highlighting restarts.
+ */
+object MhTypeProvider : ParameterizedCachedValueProvider<MhTypeProvider.AnalysisResult, PsiMember> {
+    override fun compute(param: PsiMember): CachedValueProvider.Result<AnalysisResult> {
+        val dependencies = mutableSetOf<Any>(
+            SubtreeModificationTracker(param),
+            @Suppress("DEPRECATION")
+            PsiModificationTracker.getInstance(param.project).javaStructureModificationTracker
+        )
+        val typeData = MethodHandleElementVisitor { fieldType(it, param, dependencies) }.scan(param)
+        val result = AnalysisResult(typeData.freeze(param), dependencies.toSet())
+        return CachedValueProvider.Result.create(result, dependencies.toList())
     }
 
-    val CACHE_KEY = Key<ParameterizedCachedValue<TypeData, PsiFile>>("HandleHints.Cache")
+    val CACHE_KEY = Key<ParameterizedCachedValue<AnalysisResult, PsiMember>>("HandleHints.Cache")
+
+    fun typeTableFor(member: PsiMember): TypeTable = resultFor(member).typeTable
+
+    /**
+     * Returns the joined type of all writes to the given final field,
+     * or `null` if the field is not final or no write has a known type.
+     */
+    fun fieldType(field: PsiField): TypeLatticeElement<*>? = fieldType(field, null, mutableSetOf())
+
+    /**
+     * Returns the member whose code block [element] is analysed as part of,
+     * or `null` if [element] is not part of any analysed code block.
+     */
+    fun analysedMemberOf(element: PsiElement): PsiMember? {
+        // local and anonymous classes are analysed together with their enclosing code block,
+        // so the outermost member is the relevant one
+        var member: PsiMember? = null
+        var current: PsiElement? = element
+        while (current != null && current !is PsiFile) {
+            if (current is PsiMethod || current is PsiClassInitializer || current is PsiField) {
+                member = current as PsiMember
+            }
+            current = current.parent
+        }
+        return member?.takeIf { isAnalysed(it) }
+    }
+
+    /**
+     * Returns all members of [file] that have an analysed code block, see [analysedMemberOf].
+     */
+    fun analysedMembersOf(file: PsiFile): List<PsiMember> {
+        val members = mutableListOf<PsiMember>()
+        // local and anonymous classes are part of the code block they are declared in, so they are not visited
+        val classes = ArrayDeque((file as? PsiClassOwner)?.classes?.asList() ?: listOf())
+        while (classes.isNotEmpty()) {
+            val psiClass = classes.removeFirst()
+            psiClass.fields.filterTo(members, ::isAnalysed)
+            psiClass.initializers.filterTo(members, ::isAnalysed)
+            psiClass.methods.filterTo(members, ::isAnalysed)
+            classes.addAll(psiClass.innerClasses)
+        }
+        return members
+    }
+
+    /**
+     * Returns whether the code block of [member] can write final fields, see [fieldType].
+     */
+    fun writesFinalFields(member: PsiMember) = when (member) {
+        is PsiField, is PsiClassInitializer -> true
+        is PsiMethod -> member.isConstructor
+        else -> false
+    }
+
+    @Suppress("UnstableApiUsage")
+    private fun isAnalysed(member: PsiMember) = when (member) {
+        is PsiMethod -> member.body != null
+        is PsiClassInitializer -> true
+        is PsiField -> member.hasModifier(JvmModifier.FINAL) && member.initializer != null
+        else -> false
+    }
+
+    private fun resultFor(member: PsiMember): AnalysisResult {
+        return CachedValuesManager.getManager(member.project)
+            .getParameterizedCachedValue(member, CACHE_KEY, this, false, member)
+    }
+
+    private fun fieldType(field: PsiField, current: PsiMember?, dependencies: MutableSet<Any>): TypeLatticeElement<*>? {
+        @Suppress("UnstableApiUsage")
+        if (!field.hasModifier(JvmModifier.FINAL)) return null
+        // facts about fields are only shared within one file
+        if (current != null && field.containingFile != current.containingFile) return null
+        var type: TypeLatticeElement<*>? = null
+        for (writer in writersOf(field)) {
+            // writes of the member currently analysed are tracked by the analysis itself
+            if (writer == current) continue
+            // fields might depend on each other cyclically
+            val result = doPreventingRecursion(writer, false) { resultFor(writer) } ?: continue
+            dependencies.addAll(result.dependencies)
+            val written = result.typeTable[writer, field] ?: continue
+            type = type?.let { SsaAnalyzer.join(it, written) } ?: written
+        }
+        return type
+    }
+
+    @Suppress("UnstableApiUsage")
+    private fun writersOf(field: PsiField): List<PsiMember> {
+        if (field.initializer != null) return listOf(field)
+        val containingClass = field.containingClass ?: return listOf()
+        val static = field.hasModifier(JvmModifier.STATIC)
+        val initializers = containingClass.initializers.filter { it.hasModifier(JvmModifier.STATIC) == static }
+        return if (static) initializers else initializers + containingClass.constructors
+    }
+
+    class AnalysisResult internal constructor(val typeTable: TypeTable, internal val dependencies: Set<Any>)
+
+    /**
+     * Changes whenever the subtree of the member changes, or the member is re-parsed.
+     */
+    private class SubtreeModificationTracker(private val member: PsiMember) : ModificationTracker {
+        override fun getModificationCount(): Long {
+            if (!member.isValid) return -1
+            val node = member.node as? CompositeElement ?: return member.containingFile.modificationStamp
+            return (System.identityHashCode(node).toLong() shl 32) + node.modificationCount
+        }
+    }
 }
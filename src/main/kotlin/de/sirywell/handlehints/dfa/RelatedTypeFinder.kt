@@ -0,0 +1,55 @@
+package de.sirywell.handlehints.dfa
+
+import com.intellij.psi.*
+import de.sirywell.handlehints.isUnrelated
+
+/**
+ * Finds out whether an element contains any variable or expression of a type the analysis is interested in.
+ *
+ * The analysis only records results for such variables and expressions,
+ * so code blocks without any of them don't need to be analysed at all.
+ */
+class RelatedTypeFinder private constructor() : JavaRecursiveElementWalkingVisitor() {
+    companion object {
+        fun containsRelatedType(element: PsiElement): Boolean {
+            val finder = RelatedTypeFinder()
+            element.accept(finder)
+            return finder.found
+        }
+    }
+
+    private var found = false
+
+    override fun visitVariable(variable: PsiVariable) {
+        check(variable.type, variable)
+        super.visitVariable(variable)
+    }
+
+    override fun visitExpression(expression: PsiExpression) {
+        // other expressions never have a related type, e.g., literals, or get it from an operand
+        // that is checked itself, e.g., parenthesized or switch expressions. References are visited here as well
+        if (expression is PsiCallExpression
+            || expression is PsiReferenceExpression
+            || expression is PsiConditionalExpression
+            || expression is PsiAssignmentExpression
+            || expression is PsiTypeCastExpression
+            || expression is PsiArrayAccessExpression
+        ) {
+            check(expression.type, expression)
+        }
+        super.visitExpression(expression)
+    }
+
+    override fun visitClass(aClass: PsiClass) {
+        // local and anonymous classes are not part of the control flow of the enclosing block
+    }
+
+    private fun check(type: PsiType?, context: PsiElement) {
+        // all related types are class types
+        if (type !is PsiClassType) return
+        if (!isUnrelated(type, context)) {
+            found = true
+            stopWalking()
+        }
+    }
+}
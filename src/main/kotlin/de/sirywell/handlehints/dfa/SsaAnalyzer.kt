@@ -1,22 +1,32 @@
 package de.sirywell.handlehints.dfa
 
+import com.intellij.codeInspection.ProblemHighlightType
 import com.intellij.lang.jvm.JvmModifier
 import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.psi.*
 import com.intellij.psi.controlFlow.ControlFlow
 import com.intellij.psi.controlFlow.ReadVariableInstruction
 import com.intellij.psi.controlFlow.WriteVariableInstruction
 import de.sirywell.handlehints.*
+import de.sirywell.handlehints.MethodHandleBundle.problemMessage
 import de.sirywell.handlehints.dfa.SsaConstruction.*
 import de.sirywell.handlehints.foreign.FunctionDescriptorHelper
 import de.sirywell.handlehints.foreign.LinkerHelper
 import de.sirywell.handlehints.foreign.MemoryLayoutHelper
 import de.sirywell.handlehints.foreign.PathElementHelper
+import de.sirywell.handlehints.inspection.ProblemRecord
 import de.sirywell.handlehints.mhtype.*
 import de.sirywell.handlehints.type.*
 import kotlin.reflect.KClass
 
-class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData) {
+class SsaAnalyzer(
+    private val controlFlow: ControlFlow,
+    val typeData: TypeData,
+    private val fieldTypes: (PsiField) -> TypeLatticeElement<*>?,
+    private val budget: AnalysisBudget,
+    private val ssaConstruction: SsaConstruction<TypeLatticeElement<*>> = SsaConstruction(controlFlow),
+) {
     companion object {
         private val LOG = Logger.getInstance(SsaAnalyzer::class.java)
         private val objectMethods = setOf(
@@ -30,9 +40,23 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
             "toString",
             "wait"
         )
+
+        fun join(first: TypeLatticeElement<*>, second: TypeLatticeElement<*>): TypeLatticeElement<*> {
+            if (first is MethodHandleType && second is MethodHandleType) {
+                return first.join(second)
+            }
+            if (first is VarHandleType && second is VarHandleType) {
+                return first.join(second)
+            }
+            if (first is MemoryLayoutType && second is MemoryLayoutType) {
+                return first.join(second)
+            }
+            throw AssertionError("unexpected join: $first - $second")
+        }
     }
 
-    private val ssaConstruction = SsaConstruction<TypeLatticeElement<*>>(controlFlow)
+    private var truncated = false
+    private val phiTypes = mutableMapOf<Phi<TypeLatticeElement<*>>, TypeLatticeElement<*>?>()
     private val methodHandlesMerger = MethodHandlesMerger(this)
     private val methodHandlesInitializer = MethodHandlesInitializer(this)
     private val methodHandleTransformer = MethodHandleTransformer(this)
@@ -46,12 +70,39 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
     private val linkerHelper = LinkerHelper(this, functionDescriptorHelper)
 
     fun doTraversal() {
-        ssaConstruction.traverse(::onRead, ::onWrite)
+        AnalysisContext.run { ssaConstruction.traverse(::onRead, ::onWrite) }
+    }
+
+    /**
+     * Returns the types of the variables at the start of each loop header,
+     * joined over the loop entry and all back edges.
+     * Only meaningful after [doTraversal].
+     */
+    fun loopHeaderTypes(): Map<PsiVariable, Map<Block, TypeLatticeElement<*>>> {
+        val types = mutableMapOf<PsiVariable, MutableMap<Block, TypeLatticeElement<*>>>()
+        for (header in ssaConstruction.loopHeaders) {
+            for ((variable, values) in ssaConstruction.incomingValues(header)) {
+                val type = values.mapNotNull { typeOf(it) }.reduceOrNull { acc, t -> join(acc, t) } ?: continue
+                types.computeIfAbsent(variable) { mutableMapOf() }[header] = type
+            }
+        }
+        return types
+    }
+
+    private fun typeOf(value: Value<TypeLatticeElement<*>>): TypeLatticeElement<*>? {
+        return when (value) {
+            is Holder -> value.value
+            is Phi -> phiType(value)
+        }
     }
 
     private fun onRead(instruction: ReadVariableInstruction, index: Int, block: Block) {
         if (isUnrelated(instruction.variable)) return
         val element = controlFlow.getElement(index)
+        if (!withinBudget(index, block)) {
+            typeData[element] = topForType(instruction.variable.type, instruction.variable)
+            return
+        }
         if (element is PsiReferenceExpression && isUnstableVariable(element, instruction.variable)) {
             typeData[element] = topForType(instruction.variable.type, instruction.variable)
             return
@@ -60,13 +111,10 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
         if (value is Holder) {
             typeData[element] = value.value
         } else if (value is Phi) {
-            val type = value.blockToValue.values
-                .flatMap { if (it is Holder) listOf(it.value) else resolvePhi(it as Phi) }
-                .reduceOrNull { acc, mhType -> join(acc, mhType) }
-            typeData[element] = type
+            typeData[element] = phiType(value)
                 ?: topForType(instruction.variable.type, instruction.variable)
         } else {
-            typeData[element] = typeData[instruction.variable] ?: return
+            typeData[element] = fieldType(instruction.variable) ?: return
         }
     }
 
@@ -86,17 +134,18 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
         return variable !is PsiLocalVariable && variable !is PsiParameter
     }
 
-    private fun join(first: TypeLatticeElement<*>, second: TypeLatticeElement<*>): TypeLatticeElement<*> {
-        if (first is MethodHandleType && second is MethodHandleType) {
-            return first.join(second)
-        }
-        if (first is VarHandleType && second is VarHandleType) {
-            return first.join(second)
-        }
-        if (first is MemoryLayoutType && second is MemoryLayoutType) {
-            return first.join(second)
-        }
-        throw AssertionError("unexpected join: $first - $second")
+    // final fields written in other code blocks are analysed separately
+    private fun fieldType(variable: PsiVariable): TypeLatticeElement<*>? {
+        return typeData[variable] ?: (variable as? PsiField)?.let(fieldTypes)
+    }
+
+    // all blocks are sealed before the traversal starts, so the operands of a phi are complete and don't change
+    private fun phiType(phi: Phi<TypeLatticeElement<*>>): TypeLatticeElement<*>? {
+        if (phi in phiTypes) return phiTypes[phi]
+        budget.consumePhi()
+        val type = resolvePhi(phi).reduceOrNull { acc, mhType -> join(acc, mhType) }
+        phiTypes[phi] = type
+        return type
     }
 
     private fun <T> resolvePhi(
@@ -108,6 +157,7 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
             return mut.toList()
         }
         phi.blockToValue.values.forEach {
+            ProgressManager.checkCanceled()
             if (it is Holder) {
                 mut.add(it.value)
             } else {
@@ -119,6 +169,15 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
 
     private fun onWrite(instruction: WriteVariableInstruction, index: Int, block: Block) {
         if (isUnrelated(instruction.variable)) return
+        if (!withinBudget(index, block)) {
+            val top = topForType(instruction.variable.type, instruction.variable)
+            ssaConstruction.writeVariable(instruction.variable, block, Holder(top))
+            @Suppress("UnstableApiUsage")
+            if (instruction.variable is PsiField && instruction.variable.hasModifier(JvmModifier.FINAL)) {
+                typeData[instruction.variable] = top
+            }
+            return
+        }
         val expression = when (val element = controlFlow.getElement(index)) {
             is PsiAssignmentExpression -> element.rExpression!!
             is PsiDeclarationStatement -> instruction.variable.initializer!!
@@ -140,6 +199,23 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
         }
     }
 
+    // once the budget is exhausted, the remaining variables are top, and the location is reported once
+    private fun withinBudget(index: Int, block: Block): Boolean {
+        if (truncated) return false
+        if (budget.consumeInstruction(block)) return true
+        truncated = true
+        AnalysisMetrics.increment(AnalysisMetrics.Counter.BLOCKS_TRUNCATED)
+        typeData.reportProblem(
+            controlFlow.getElement(index),
+            ProblemRecord(
+                problemMessage("problem.general.analysis.truncated", budget.exceeded!!.readableName),
+                listOf(),
+                ProblemHighlightType.WEAK_WARNING
+            )
+        )
+        return false
+    }
+
     fun resolveType(expression: PsiExpression, block: Block): TypeLatticeElement<*>? {
         if (expression.type == null || isUnrelated(expression.type!!, expression)) {
             return noMatch() // unrelated
@@ -151,147 +227,17 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
         if (expression is PsiLiteralExpression && expression.value == null) return null
         if (expression is PsiMethodCallExpression) {
             val arguments = expression.argumentList.expressions.asList()
-            val methodExpression = expression.methodExpression
-            val qualifier = methodExpression.qualifierExpression
-            if (receiverIsMethodType(expression)) {
-                return when (expression.methodName) {
-                    "methodType" -> {
-                        if (arguments.isEmpty()) return noMatch()
-                        if (arguments.size == 2 && arguments[1].type == methodTypeType(expression)) {
-                            methodTypeHelper.methodType(
-                                arguments[0],
-                                arguments[1].methodHandleType(block) ?: notConstant()
-                            )
-                        } else {
-                            methodTypeHelper.methodType(arguments)
-                        }
-                    }
-
-                    "unwrap" -> methodTypeHelper.unwrap(qualifier?.methodHandleType(block) ?: return noMatch())
-                    "wrap" -> methodTypeHelper.wrap(expression, qualifier?.methodHandleType(block) ?: return noMatch())
-                    "dropParameterTypes" -> {
-                        val mhType = qualifier?.methodHandleType(block) ?: return noMatch()
-                        if (arguments.size != 2) return noMatch()
-                        val (start, end) = arguments
-                        methodTypeHelper.dropParameterTypes(mhType, start, end)
-                    }
-
-                    "insertParameterTypes" -> {
-                        val mhType = qualifier?.methodHandleType(block) ?: notConstant()
-                        if (arguments.isEmpty()) return noMatch()
-                        methodTypeHelper.insertParameterTypes(mhType, arguments[0], arguments.drop(1))
-                    }
-
-                    "changeParameterType" -> {
-                        val mhType = qualifier?.methodHandleType(block) ?: notConstant()
-                        if (arguments.size != 2) return noMatch()
-                        val (num, type) = arguments
-                        methodTypeHelper.changeParameterType(mhType, num, type)
-                    }
-
-                    "changeReturnType" -> {
-                        val mhType = qualifier?.methodHandleType(block) ?: notConstant()
-                        if (arguments.size != 1) return noMatch()
-                        val type = arguments[0]
-                        methodTypeHelper.changeReturnType(mhType, type)
-                    }
-
-                    "appendParameterTypes" ->
-                        methodTypeHelper.appendParameterTypes(
-                            qualifier?.methodHandleType(block) ?: return noMatch(),
-                            arguments
-                        )
-
-                    "erase" ->
-                        methodTypeHelper.erase(qualifier?.methodHandleType(block) ?: return noMatch(), expression)
-
-                    "generic" ->
-                        methodTypeHelper.generic(
-                            qualifier?.methodHandleType(block) ?: return noMatch(),
-                            objectType(expression)
-                        )
-
-                    "genericMethodType" -> {
-                        val size = arguments.size
-                        if (size != 1 && arguments.size != 2) return noMatch()
-                        val finalArray =
-                            if (size == 1) false else arguments[1].getConstantOfType<Boolean>()
-                                ?: return notConstant<MethodHandleType>()
-                        methodTypeHelper.genericMethodType(arguments[0], finalArray, objectType(expression))
-                    }
-
-                    "fromMethodDescriptorString" -> notConstant<MethodHandleType>() // not supported
-
-                    "describeConstable",
-                    "descriptorString",
-                    "hasPrimitives",
-                    "hasWrappers",
-                    "lastParameterType",
-                    "parameterArray",
-                    "parameterCount",
-                    "parameterList",
-                    "parameterType",
-                    "toMethodDescriptorString",
-                        -> unrelatedType()
-
-                    in objectMethods -> unrelatedType()
-                    else -> warnUnsupported(expression, "MethodType")
-                }
-            } else if (receiverIsMethodHandles(expression)) {
-                return methodHandles(expression, arguments, block)
-            } else if (receiverIsMethodHandle(expression)) {
-                return when (expression.methodName) {
-                    "asCollector" -> TODO()
-                    "asFixedArity" -> {
-                        if (arguments.isNotEmpty()) return noMatch()
-                        methodHandleTransformer.asFixedArity(qualifier?.methodHandleType(block) ?: notConstant())
-                    }
-
-                    "asSpreader" -> TODO()
-                    "asType" -> {
-                        if (arguments.size != 1) return noMatch()
-                        val target = qualifier ?: return noMatch()
-                        methodHandleTransformer.asType(target, arguments[0], block)
-                    }
-
-                    "asVarargsCollector" -> TODO()
-                    "bindTo" -> {
-                        if (arguments.size != 1) return noMatch()
-                        val target = qualifier ?: return noMatch()
-                        methodHandleTransformer.bindTo(target, arguments[0], block)
-                    }
-
-                    "withVarargs" -> {
-                        if (arguments.size != 1) return noMatch()
-                        val target = qualifier ?: return noMatch()
-                        methodHandleTransformer.withVarargs(target, arguments[0], block)
-                    }
-
-                    "describeConstable",
-                    "invoke",
-                    "invokeExact",
-                    "invokeWithArguments" -> unrelatedType()
-
-                    "type" -> qualifier?.methodHandleType(block)
-                        ?.withVarargs(TriState.NO) // if ever used somewhere else, assume non-varargs
-
-                    in objectMethods -> unrelatedType()
-                    else -> warnUnsupported(expression, "MethodHandle")
-                }
-            } else if (receiverIsVarHandle(expression)) {
-                return varHandle(expression, arguments, block)
-            } else if (receiverIsLookup(expression)) {
-                return lookup(expression, arguments, block)
-            } else if (receiverIsMemoryLayout(expression)) {
-                return memoryLayout(expression, arguments, block)
-            } else if (receiverIsPathElement(expression)) {
-                return pathElement(expression, arguments, block)
-            } else if (receiverIsFunctionDescriptor(expression)) {
-                return functionDescriptor(expression, arguments, block)
-            } else if (receiverIsLinker(expression)) {
-                return linker(expression, arguments, block)
-            } else {
-                return methodExpression.type?.let { topForType(it, expression) }
+            return when (expression.apiFamily()) {
+                ApiFamily.METHOD_TYPE -> methodType(expression, arguments, block)
+                ApiFamily.METHOD_HANDLES -> methodHandles(expression, arguments, block)
+                ApiFamily.METHOD_HANDLE -> methodHandle(expression, arguments, block)
+                ApiFamily.VAR_HANDLE -> varHandle(expression, arguments, block)
+                ApiFamily.LOOKUP -> lookup(expression, arguments, block)
+                ApiFamily.MEMORY_LAYOUT -> memoryLayout(expression, arguments, block)
+                ApiFamily.PATH_ELEMENT -> pathElement(expression, arguments, block)
+                ApiFamily.FUNCTION_DESCRIPTOR -> functionDescriptor(expression, arguments, block)
+                ApiFamily.LINKER -> linker(expression, arguments, block)
+                null -> expression.methodExpression.type?.let { topForType(it, expression) }
             }
         } else if (expression is PsiReferenceExpression) {
             val variable = expression.resolve() as? PsiVariable ?: return noMatch()
@@ -312,7 +258,7 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
             return if (value is Holder) {
                 value.value
             } else if (variable is PsiField) {
-                typeData[variable] ?: noMatch()
+                fieldType(variable) ?: noMatch()
             } else {
                 // avoid StackOverflowError due to calling this method in MethodHandleTypeResolver
                 noMatch()
@@ -321,6 +267,143 @@ class SsaAnalyzer(private val controlFlow: ControlFlow, val typeData: TypeData)
         return withResolver(expression, block)
     }
 
+    private fun methodType(
+        expression: PsiMethodCallExpression,
+        arguments: List<PsiExpression>,
+        block: Block
+    ): TypeLatticeElement<*>? {
+        val qualifier = expression.methodExpression.qualifierExpression
+        return when (expression.methodName) {
+            "methodType" -> {
+                if (arguments.isEmpty()) return noMatch()
+                if (arguments.size == 2 && arguments[1].type == methodTypeType(expression)) {
+                    methodTypeHelper.methodType(
+                        arguments[0],
+                        arguments[1].methodHandleType(block) ?: notConstant()
+                    )
+                } else {
+                    methodTypeHelper.methodType(arguments)
+                }
+            }
+
+            "unwrap" -> methodTypeHelper.unwrap(qualifier?.methodHandleType(block) ?: return noMatch())
+            "wrap" -> methodTypeHelper.wrap(expression, qualifier?.methodHandleType(block) ?: return noMatch())
+            "dropParameterTypes" -> {
+                val mhType = qualifier?.methodHandleType(block) ?: return noMatch()
+                if (arguments.size != 2) return noMatch()
+                val (start, end) = arguments
+                methodTypeHelper.dropParameterTypes(mhType, start, end)
+            }
+
+            "insertParameterTypes" -> {
+                val mhType = qualifier?.methodHandleType(block) ?: notConstant()
+                if (arguments.isEmpty()) return noMatch()
+                methodTypeHelper.insertParameterTypes(mhType, arguments[0], arguments.drop(1))
+            }
+
+            "changeParameterType" -> {
+                val mhType = qualifier?.methodHandleType(block) ?: notConstant()
+                if (arguments.size != 2) return noMatch()
+                val (num, type) = arguments
+                methodTypeHelper.changeParameterType(mhType, num, type)
+            }
+
+            "changeReturnType" -> {
+                val mhType = qualifier?.methodHandleType(block) ?: notConstant()
+                if (arguments.size != 1) return noMatch()
+                val type = arguments[0]
+                methodTypeHelper.changeReturnType(mhType, type)
+            }
+
+            "appendParameterTypes" ->
+                methodTypeHelper.appendParameterTypes(
+                    qualifier?.methodHandleType(block) ?: return noMatch(),
+                    arguments
+                )
+
+            "erase" ->
+                methodTypeHelper.erase(qualifier?.methodHandleType(block) ?: return noMatch(), expression)
+
+            "generic" ->
+                methodTypeHelper.generic(
+                    qualifier?.methodHandleType(block) ?: return noMatch(),
+                    objectType(expression)
+                )
+
+            "genericMethodType" -> {
+                val size = arguments.size
+                if (size != 1 && arguments.size != 2) return noMatch()
+                val finalArray =
+                    if (size == 1) false else arguments[1].getConstantOfType<Boolean>()
+                        ?: return notConstant<MethodHandleType>()
+                methodTypeHelper.genericMethodType(arguments[0], finalArray, objectType(expression))
+            }
+
+            "fromMethodDescriptorString" -> notConstant<MethodHandleType>() // not supported
+
+            "describeConstable",
+            "descriptorString",
+            "hasPrimitives",
+            "hasWrappers",
+            "lastParameterType",
+            "parameterArray",
+            "parameterCount",
+            "parameterList",
+            "parameterType",
+            "toMethodDescriptorString",
+                -> unrelatedType()
+
+            in objectMethods -> unrelatedType()
+            else -> warnUnsupported(expression, "MethodType")
+        }
+    }
+
+    private fun methodHandle(
+        expression: PsiMethodCallExpression,
+        arguments: List<PsiExpression>,
+        block: Block
+    ): TypeLatticeElement<*>? {
+        val qualifier = expression.methodExpression.qualifierExpression
+        return when (expression.methodName) {
+            "asCollector" -> TODO()
+            "asFixedArity" -> {
+                if (arguments.isNotEmpty()) return noMatch()
+                methodHandleTransformer.asFixedArity(qualifier?.methodHandleType(block) ?: notConstant())
+            }
+
+            "asSpreader" -> TODO()
+            "asType" -> {
+                if (arguments.size != 1) return noMatch()
+                val target = qualifier ?: return noMatch()
+                methodHandleTransformer.asType(target, arguments[0], block)
+            }
+
+            "asVarargsCollector" -> TODO()
+            "bindTo" -> {
+                if (arguments.size != 1) return noMatch()
+                val target = qualifier ?: return noMatch()
+                methodHandleTransformer.bindTo(target, arguments[0], block)
+            }
+
+            "withVarargs" -> {
+                if (arguments.size != 1) return noMatch()
+                val target = qualifier ?: return noMatch()
+                methodHandleTransformer.withVarargs(target, arguments[0], block)
+            }
+
+            "describeConstable",
+            "invoke",
+            "invokeExact",
+            "invokeWithArguments" -> unrelatedType()
+
+            "type" -> qualifier?.methodHandleType(block)
+                ?.withVarargs(TriState.NO) // if ever used somewhere else, assume non-varargs
+
+            in objectMethods -> unrelatedType()
+            else -> warnUnsupported(expression, "MethodHandle")
+        }
+    }
+
     private fun withResolver(expression: PsiExpression, block: Block): TypeLatticeElement<*>? {
         fun <T : TypeLatticeElement<T>> ter(block: Block, t: T, clazz: KClass<T>): TypeElementResolver<T> {
             return TypeElementResolver(this, block, t, clazz)
@@ -1,150 +1,179 @@
-@file:Suppress("UnstableApiUsage")
-
 package de.sirywell.handlehints.dfa
 
-import com.google.common.graph.ElementOrder
-import com.google.common.graph.GraphBuilder
-import com.google.common.graph.ImmutableGraph
-import com.google.common.graph.Traverser
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.psi.PsiVariable
 import com.intellij.psi.controlFlow.*
 import java.util.*
 
 // This implements SSA Construction as described in Chapter 2 in
 // https://compilers.cs.uni-saarland.de/papers/bbhlmz13cc.pdf
-// (but for now, without trivial phi removal)
-class SsaConstruction<T>(private val controlFlow: ControlFlow) {
+//
+// Values of a previous loop iteration can be passed as loopHeaderSeeds, see FixpointSolver.
+// They are added as an additional operand to the phis of the respective loop headers.
+class SsaConstruction<T>(
+    private val controlFlow: ControlFlow,
+    private val blocks: BlockGraph = BlockGraph.build(controlFlow),
+    private val loopHeaderSeeds: Map<PsiVariable, Map<Block, T>> = emptyMap()
+) {
 
     companion object {
-        private val ENTRY_BLOCK = Block(listOf())
+        // the phi operand key of a seed, it is never part of the graph
+        private val SEED_BLOCK = Block(-1)
     }
-    private val currentDefs = mutableMapOf<PsiVariable, MutableMap<Block, Value<T>>>()
-    private val sealedBlocks = mutableSetOf<Block>()
-    private val incompletePhis = mutableMapOf<Block, MutableMap<PsiVariable, Phi<T>>>()
-    private val blocks = buildBlocks()
-
-    private fun buildBlocks(): ImmutableGraph<Block> {
-        val leaderSet = mutableSetOf(0)
-        val leaderVisitor = LeaderVisitor(leaderSet)
-        controlFlow.instructions.forEachIndexed { index, instruction -> instruction.accept(leaderVisitor, index, -1) }
-        var currentBlockInstructions = mutableListOf<Int>()
-        val blocks = mutableListOf<Block>()
-        val instructionToBlock = mutableListOf<Block>()
-
-        for (index in (0 until controlFlow.size)) {
-            if (index in leaderSet && currentBlockInstructions.isNotEmpty()) {
-                blocks.add(Block(currentBlockInstructions.toList()))
-                currentBlockInstructions = mutableListOf(index)
-            } else {
-                currentBlockInstructions.add(index)
-            }
+    // the current definitions of a variable per block, indexed by variable id and block id.
+    // A variable without definitions table was never written, so it is unrelated
+    private val currentDefs = arrayOfNulls<Array<Value<T>?>>(blocks.variableCount)
+    private val seeds = arrayOfNulls<Map<Block, T>>(blocks.variableCount)
+    private val sealedBlocks = BitSet(blocks.size)
+    private val incompletePhis = mutableMapOf<Block, MutableMap<Int, Phi<T>>>()
+    private val phiUsers = mutableMapOf<Phi<T>, MutableSet<Phi<T>>>()
+    // the values that removed trivial phis were replaced by
+    private val replacements = mutableMapOf<Phi<T>, Value<T>>()
+
+    val loopHeaders get() = blocks.loopHeaders
+
+    init {
+        // all blocks but the entry block are known upfront
+        for (block in 1 until blocks.size) {
+            sealBlock(Block(block))
         }
-
-        if (currentBlockInstructions.isNotEmpty()) {
-            blocks.add(Block(currentBlockInstructions.toList()))
+        // seeded variables are defined somewhere, even if the first read happens before the first write
+        for ((variable, blockSeeds) in loopHeaderSeeds) {
+            val id = blocks.variableId(variable)
+            if (id < 0) continue
+            seeds[id] = blockSeeds
+            definitions(id)
         }
+    }
 
-        for (block in blocks) {
-            sealBlock(block)
-            instructionToBlock.addAll(Collections.nCopies(block.instructions.size, block))
+    fun writeVariable(variable: PsiVariable, block: Block, value: Value<T>) {
+        val id = blocks.variableId(variable)
+        if (id >= 0) {
+            definitions(id)[block.id] = value
         }
-
-        return buildGraph(blocks, instructionToBlock)
     }
 
-    private fun buildGraph(
-        blocks: MutableList<Block>,
-        instructionToBlock: MutableList<Block>
-    ): ImmutableGraph<Block> {
-        val builder = GraphBuilder.directed()
-            .nodeOrder<Block>(ElementOrder.insertion())
-            .immutable<Block>()
-
-        // special case: a single block does not have any edges,
-        // but it should be still in the graph
-        if (blocks.size == 1) {
-            builder.addNode(blocks.first())
-            return builder.build()
-        }
-
-        // ensure there is a block with inDegree == 0
-        builder.putEdge(ENTRY_BLOCK, instructionToBlock[0])
-
-        for (edge in ControlFlowUtil.getEdges(controlFlow, 0)) {
-            if (edge.myTo >= controlFlow.size) {
-                // when editing code, we seemingly can have a somewhat inconsistent state
-                // val instruction = controlFlow.instructions[edge.myFrom]
-                // assert(instruction is BranchingInstruction && instruction.role == Role.END) { "$instruction"}
-                continue
-            }
-            val fromBlock = instructionToBlock[edge.myFrom]
-            val toBlock = instructionToBlock[edge.myTo]
-            if (fromBlock != toBlock) {
-                builder.putEdge(fromBlock, toBlock)
-            }
-        }
-        return builder.build()
+    fun readVariable(variable: PsiVariable, block: Block): Value<T>? {
+        val id = blocks.variableId(variable)
+        if (id < 0 || currentDefs[id] == null) return null // unrelated variable
+        return readVariable(id, block)
     }
 
-    fun writeVariable(variable: PsiVariable, block: Block, value: Value<T>) {
-        currentDefs.computeIfAbsent(variable) { mutableMapOf() }[block] = value
+    private fun definitions(id: Int): Array<Value<T>?> {
+        return currentDefs[id] ?: arrayOfNulls<Value<T>>(blocks.size).also { currentDefs[id] = it }
     }
 
-    fun readVariable(variable: PsiVariable, block: Block): Value<T>? {
-        if (variable !in currentDefs) return null // unrelated variable
-        if (block in currentDefs[variable]!!) {
-            return currentDefs[variable]!![block]!!
-        }
-        return readVariableRecursive(variable, block)
+    private fun readVariable(id: Int, block: Block): Value<T> {
+        return currentDefs[id]!![block.id] ?: readVariableRecursive(id, block)
     }
 
-    private fun readVariableRecursive(variable: PsiVariable, block: Block): Value<T>? {
-        if (variable !in currentDefs) return null
+    private fun readVariableRecursive(id: Int, block: Block): Value<T> {
+        val definitions = currentDefs[id]!!
         val value: Value<T>
-        if (block !in sealedBlocks) {
+        if (!sealedBlocks[block.id]) {
             value = Phi(block)
-            incompletePhis.computeIfAbsent(block) { mutableMapOf() }[variable] = value
-        } else if (blocks.inDegree(block) == 1) {
-            value = readVariable(variable, blocks.predecessors(block).first())!!
+            incompletePhis.computeIfAbsent(block) { mutableMapOf() }[id] = value
+        } else if (blocks.predecessorCount(block) == 1) {
+            value = readVariable(id, blocks.predecessor(block, 0))
         } else {
             val phi = Phi<T>(block)
-            writeVariable(variable, block, phi)
-            value = addPhiOperands(variable, phi)
+            definitions[block.id] = phi
+            seeds[id]?.get(block)?.let { phi.appendOperand(Holder(it), SEED_BLOCK) }
+            value = addPhiOperands(id, phi)
         }
-        writeVariable(variable, block, value)
+        definitions[block.id] = value
         return value
     }
 
-    private fun addPhiOperands(variable: PsiVariable, phi: Phi<T>): Value<T> {
-        for (pred in blocks.predecessors(phi.block)) {
-            phi.appendOperand(readVariable(variable, pred)!!, pred)
+    private fun addPhiOperands(id: Int, phi: Phi<T>): Value<T> {
+        for (i in 0 until blocks.predecessorCount(phi.block)) {
+            val pred = blocks.predecessor(phi.block, i)
+            val operand = readVariable(id, pred)
+            phi.appendOperand(operand, pred)
+            if (operand is Phi) {
+                phiUsers.computeIfAbsent(operand) { mutableSetOf() }.add(phi)
+            }
+        }
+        return tryRemoveTrivialPhi(id, phi)
+    }
+
+    private fun tryRemoveTrivialPhi(id: Int, phi: Phi<T>): Value<T> {
+        // the phi was removed as a user of another removed phi before
+        if (phi in replacements) return resolve(phi)
+        var same: Value<T>? = null
+        for (operand in phi.blockToValue.values) {
+            if (operand == same || operand === phi) continue // unique value or self-reference
+            if (same != null) return phi // the phi merges at least two values: not trivial
+            same = operand
         }
-        return tryRemoveTrivialPhi(phi)
+        // the phi is unreachable or in the start block, there is no undefined value to replace it with
+        if (same == null) return phi
+        val users = phiUsers.remove(phi).orEmpty() - phi
+        replaceBy(id, phi, same, users)
+        replacements[phi] = same
+        AnalysisMetrics.increment(AnalysisMetrics.Counter.TRIVIAL_PHIS_REMOVED)
+        // replacing the phi might have made its users trivial too
+        for (user in users) {
+            tryRemoveTrivialPhi(id, user)
+        }
+        // one of the users might have been the value the phi was replaced by
+        return resolve(same)
     }
 
-    private fun tryRemoveTrivialPhi(phi: Phi<T>): Value<T> {
-        // very trivial phis only (none)
-        return phi
+    private fun resolve(value: Value<T>): Value<T> {
+        var current = value
+        while (current is Phi) {
+            current = replacements[current] ?: break
+        }
+        return current
+    }
+
+    private fun replaceBy(id: Int, phi: Phi<T>, value: Value<T>, users: Set<Phi<T>>) {
+        for (user in users) {
+            user.blockToValue.replaceAll { _, operand -> if (operand === phi) value else operand }
+            if (value is Phi) {
+                phiUsers.computeIfAbsent(value) { mutableSetOf() }.add(user)
+            }
+        }
+        val definitions = currentDefs[id] ?: return
+        for (block in definitions.indices) {
+            if (definitions[block] === phi) {
+                definitions[block] = value
+            }
+        }
     }
 
     private fun sealBlock(block: Block) {
-        for ((variable, phi) in incompletePhis[block].orEmpty()) {
-            addPhiOperands(variable, phi)
+        for ((id, phi) in incompletePhis[block].orEmpty()) {
+            addPhiOperands(id, phi)
         }
-        sealedBlocks.add(block)
+        sealedBlocks.set(block.id)
+    }
+
+    /**
+     * Returns the values of all defined variables at the end of each predecessor of [block].
+     * After [traverse], this includes the values flowing back into a loop header from the end of the loop.
+     */
+    fun incomingValues(block: Block): Map<PsiVariable, List<Value<T>>> {
+        val values = mutableMapOf<PsiVariable, List<Value<T>>>()
+        for (id in currentDefs.indices) {
+            if (currentDefs[id] == null) continue
+            values[blocks.variable(id)] = (0 until blocks.predecessorCount(block)).map {
+                readVariable(id, blocks.predecessor(block, it))
+            }
+        }
+        return values
     }
 
     fun traverse(
         onRead: (ReadVariableInstruction, Int, Block) -> Unit,
         onWrite: (WriteVariableInstruction, Int, Block) -> Unit
     ) {
-        val list = Traverser.forGraph(blocks)
-            .depthFirstPostOrder(blocks.nodes().find { blocks.inDegree(it) == 0 }!!)
-            .reversed()
-            .toList()
         val instructions = controlFlow.instructions
-        for (block in list) {
-            for (instrIndex in block.instructions) {
+        for (id in blocks.reversePostorder) {
+            val block = Block(id)
+            for (instrIndex in blocks.firstInstruction(block) until blocks.endInstruction(block)) {
+                ProgressManager.checkCanceled()
                 when (val instruction = instructions[instrIndex]) {
                     is ReadVariableInstruction -> onRead(instruction, instrIndex, block)
                     is WriteVariableInstruction -> onWrite(instruction, instrIndex, block)
@@ -153,16 +182,11 @@ class SsaConstruction<T>(private val controlFlow: ControlFlow) {
         }
     }
 
-    data class Block(val instructions: List<Int>)
-
-    class LeaderVisitor(private val leaders: MutableSet<Int>) : ControlFlowInstructionVisitor() {
-
-        override fun visitBranchingInstruction(instruction: BranchingInstruction, offset: Int, nextOffset: Int) {
-            for (i in (0 until instruction.nNext())) {
-                leaders.add(instruction.getNext(offset, i))
-            }
-        }
-    }
+    /**
+     * A basic block, identified by its number in the [BlockGraph].
+     */
+    @JvmInline
+    value class Block(val id: Int)
 
     sealed interface Value<T>
     data class Phi<T>(
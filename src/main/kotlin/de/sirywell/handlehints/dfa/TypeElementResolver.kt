@@ -1,5 +1,6 @@
 package de.sirywell.handlehints.dfa
 
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.util.RecursionManager.doPreventingRecursion
 import com.intellij.psi.*
 import com.intellij.psi.util.childrenOfType
@@ -21,6 +22,7 @@ class TypeElementResolver<T : TypeLatticeElement<T>>(
         val rules = (expression.body ?: return).childrenOfType<PsiSwitchLabeledRuleStatement>()
         var r = bot
         for (rule in rules) {
+            ProgressManager.checkCanceled()
             rule.body?.accept(this) ?: continue
             r = r.join(result ?: continue)
         }
@@ -54,7 +54,7 @@ class LinkerHelper(
             }
             TriState.UNKNOWN -> {
                 // we only know that MemorySegment is a leading param, everything else is uncertain
-                IncompleteTypeList(mapOf(0 to memorySegmentType).toSortedMap())
+                IncompleteTypeList(SparseList.of(0, memorySegmentType))
             }
         }
     }
@@ -1,14 +1,12 @@
 package de.sirywell.handlehints.foreign
 
-import com.intellij.codeInspection.LocalQuickFix.from
 import com.intellij.psi.PsiExpression
 import com.intellij.psi.PsiType
 import de.sirywell.handlehints.*
-import de.sirywell.handlehints.MethodHandleBundle.message
+import de.sirywell.handlehints.MethodHandleBundle.problemMessage
 import de.sirywell.handlehints.dfa.SsaAnalyzer
 import de.sirywell.handlehints.dfa.SsaConstruction
-import de.sirywell.handlehints.inspection.AdjustAlignmentFix
-import de.sirywell.handlehints.inspection.AdjustPaddingFix
+import de.sirywell.handlehints.inspection.FixRecord
 import de.sirywell.handlehints.inspection.ProblemEmitter
 import de.sirywell.handlehints.type.*
 import kotlin.reflect.KClass
@@ -22,14 +20,14 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
     ): MemoryLayoutType {
         val byteAlignment = byteAlignmentExpr.asLong() ?: return TopMemoryLayoutType
         if (byteAlignment < 0 || byteAlignment.countOneBits() != 1) {
-            return emitProblem(byteAlignmentExpr, message("problem.general.argument.notAPowerOfTwo", byteAlignment))
+            return emitProblem(byteAlignmentExpr, problemMessage("problem.general.argument.notAPowerOfTwo", byteAlignment))
         }
         val target = ssaAnalyzer.memoryLayoutType(qualifier, block) ?: TopMemoryLayoutType
         if (target is StructLayoutType && target.memberLayouts.anyKnownMatches {
                 (it.byteAlignment ?: 1) > byteAlignment // 1 is smallest alignment anyway, so that's a good fallback
             }
         ) {
-            return emitProblem(byteAlignmentExpr, message("problem.foreign.memory.invalidAlignment", byteAlignment))
+            return emitProblem(byteAlignmentExpr, problemMessage("problem.foreign.memory.invalidAlignment", byteAlignment))
         }
         return target.withByteAlignment(byteAlignment)
     }
@@ -38,7 +36,6 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
         return getConstantLong()
     }
 
-    @Suppress("UnstableApiUsage")
     fun structLayout(arguments: List<PsiExpression>, block: SsaConstruction.Block): MemoryLayoutType {
         val members = arguments.map { ssaAnalyzer.memoryLayoutType(it, block) ?: TopMemoryLayoutType }
         val size = sumSize(members)
@@ -53,13 +50,13 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
                     val padding = byteAlignment - t % byteAlignment
                     val fixes = if (type is NormalValueLayoutType)
                         arrayOf(
-                            from(AdjustPaddingFix(arguments[index], padding))!!,
-                            from(AdjustAlignmentFix(arguments[index], requiredAlignment(t, byteAlignment)))!!
+                            FixRecord(FixRecord.Kind.ADJUST_PADDING, padding),
+                            FixRecord(FixRecord.Kind.ADJUST_ALIGNMENT, requiredAlignment(t, byteAlignment))
                         )
                     else
-                        arrayOf(from(AdjustPaddingFix(arguments[index], padding))!!)
+                        arrayOf(FixRecord(FixRecord.Kind.ADJUST_PADDING, padding))
                     return emitProblem(
-                        arguments[index], message(
+                        arguments[index], problemMessage(
                             "problem.foreign.memory.layoutMismatch",
                             byteAlignment, t
                         ),
@@ -98,7 +95,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
             if (elementCount < 0) {
                 return emitProblem(
                     elementCountExpr,
-                    message("problem.general.argument.numericConditionMismatch", ">= 0", elementCount)
+                    problemMessage("problem.general.argument.numericConditionMismatch", ">= 0", elementCount)
                 )
             }
 
@@ -108,7 +105,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
             } catch (_: ArithmeticException) {
                 return emitProblem(
                     elementCountExpr,
-                    message("problem.foreign.memory.layoutSizeOverflow")
+                    problemMessage("problem.foreign.memory.layoutSizeOverflow")
                 )
 
             }
@@ -117,7 +114,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
         if ((elementLayout.byteSize ?: 0) % (elementLayout.byteAlignment ?: 1) != 0L) {
             return emitProblem(
                 elementLayoutExpr,
-                message(
+                problemMessage(
                     "problem.foreign.memory.alignmentMismatch",
                     elementLayout.byteSize!!,
                     elementLayout.byteAlignment!!
@@ -130,7 +127,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
     fun paddingLayout(byteSizeExpr: PsiExpression): MemoryLayoutType {
         val size = byteSizeExpr.asLong() ?: return PaddingLayoutType(1, null, WITHOUT_NAME)
         if (size <= 0) {
-            return emitProblem(byteSizeExpr, message("problem.general.argument.numericConditionMismatch", "> 0", size))
+            return emitProblem(byteSizeExpr, problemMessage("problem.general.argument.numericConditionMismatch", "> 0", size))
         }
         return PaddingLayoutType(1, size, WITHOUT_NAME)
     }
@@ -245,7 +242,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
         ) = bot() // TODO does that make sense?
 
         override fun invalidAddressDereference(head: IndexedValue<DereferenceElementType>): MemoryLayoutType {
-            return emitProblem(contextElement(head.index), message("problem.foreign.memory.dereferenceElementInvalid"))
+            return emitProblem(contextElement(head.index), problemMessage("problem.foreign.memory.dereferenceElementInvalid"))
         }
 
         override fun pathElementAndLayoutTypeMismatch(
@@ -255,7 +252,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
         ): MemoryLayoutType {
             return emitProblem(
                 contextElement(head.index),
-                message(
+                problemMessage(
                     "problem.foreign.memory.pathElementMismatch",
                     pathElementType.simpleName!!.replace("ElementType", "").lowercase(),
                     memoryLayoutType.simpleName!!.replace("Type", "")
@@ -270,7 +267,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
         ): MemoryLayoutType {
             return emitProblem(
                 contextElement(elementType.index),
-                message("problem.foreign.memory.pathGroupElementUnknownName", name)
+                problemMessage("problem.foreign.memory.pathGroupElementUnknownName", name)
             )
         }
 
@@ -281,7 +278,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
         ): MemoryLayoutType {
             return emitProblem(
                 contextElement(elementType.index),
-                message("problem.foreign.memory.pathGroupElementOutOfBounds", 0, index, memberLayouts.sizeOrNull()!!)
+                problemMessage("problem.foreign.memory.pathGroupElementOutOfBounds", 0, index, memberLayouts.sizeOrNull()!!)
             )
         }
 
@@ -302,7 +299,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
         override fun onPathEmpty(layoutType: MemoryLayoutType, coords: MutableList<Type>): VarHandleType {
             return when (layoutType) {
                 is NormalValueLayoutType -> onComplete(layoutType, coords)
-                else -> emitProblem(contextElement(-1), message("problem.foreign.memory.pathTargetNotValueLayout"))
+                else -> emitProblem(contextElement(-1), problemMessage("problem.foreign.memory.pathTargetNotValueLayout"))
             }
         }
 
@@ -314,7 +311,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
             path: List<IndexedValue<PathElementType>>,
             coords: MutableList<Type>
         ): VarHandleType {
-            return CompleteVarHandleType(TopType, IncompleteTypeList(coords.toIndexedMap()), KnownInvocationBehavior.INVOKE)
+            return CompleteVarHandleType(TopType, IncompleteTypeList(coords.toSparseList()), KnownInvocationBehavior.INVOKE)
         }
 
         private fun onComplete(
@@ -350,7 +347,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
             path: List<IndexedValue<PathElementType>>,
             coords: MutableList<Type>
         ): MethodHandleType {
-            return CompleteMethodHandleType(TopType, IncompleteTypeList(coords.toIndexedMap()), TriState.NO)
+            return CompleteMethodHandleType(TopType, IncompleteTypeList(coords.toSparseList()), TriState.NO)
         }
 
         override fun dereferenceElement(
@@ -359,7 +356,7 @@ class MemoryLayoutHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(
         ): MemoryLayoutType {
             return emitProblem(
                 contextElement(head.index),
-                message("problem.foreign.memory.dereferenceElementNotAllowed")
+                problemMessage("problem.foreign.memory.dereferenceElementNotAllowed")
             )
         }
     }
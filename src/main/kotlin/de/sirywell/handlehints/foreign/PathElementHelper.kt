@@ -2,7 +2,7 @@ package de.sirywell.handlehints.foreign
 
 import com.intellij.psi.PsiExpression
 import com.intellij.psi.PsiTypes
-import de.sirywell.handlehints.MethodHandleBundle.message
+import de.sirywell.handlehints.MethodHandleBundle.problemMessage
 import de.sirywell.handlehints.dfa.SsaAnalyzer
 import de.sirywell.handlehints.getConstantLong
 import de.sirywell.handlehints.getConstantOfType
@@ -19,7 +19,7 @@ class PathElementHelper(ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(ssaAnalyzer.t
         if ((index ?: Long.MAX_VALUE) < 0L) {
             return emitProblem(
                 indexExpr,
-                message("problem.general.argument.numericConditionMismatch", ">= 0", index!!)
+                problemMessage("problem.general.argument.numericConditionMismatch", ">= 0", index!!)
             )
         }
         return SequenceElementType(SelectingSequenceElementVariant(index))
@@ -31,13 +31,13 @@ class PathElementHelper(ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(ssaAnalyzer.t
         if ((start ?: Long.MAX_VALUE) < 0L) {
             return emitProblem(
                 startExpr,
-                message("problem.general.argument.numericConditionMismatch", ">= 0", start!!)
+                problemMessage("problem.general.argument.numericConditionMismatch", ">= 0", start!!)
             )
         }
         if ((step ?: 1L) == 0L) {
             return emitProblem(
                 stepExpr,
-                message("problem.general.argument.numericConditionMismatch", "!= 0", step!!)
+                problemMessage("problem.general.argument.numericConditionMismatch", "!= 0", step!!)
             )
         }
         return SequenceElementType(SelectingOpenSequenceElementVariant(start, step))
@@ -52,7 +52,7 @@ class PathElementHelper(ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(ssaAnalyzer.t
             if (index != null && index < 0) {
                 return emitProblem(
                     indexOrNameExpr,
-                    message("problem.general.argument.numericConditionMismatch", ">= 0", index)
+                    problemMessage("problem.general.argument.numericConditionMismatch", ">= 0", index)
                 )
 
             }
@@ -1,5 +1,6 @@
 package de.sirywell.handlehints.foreign
 
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.util.containers.headTail
 import de.sirywell.handlehints.type.*
 import kotlin.reflect.KClass
@@ -20,6 +21,7 @@ interface PathTraverser<T> {
         if (path.isEmpty()) {
             return onPathEmpty(layoutType, coords)
         }
+        ProgressManager.checkCanceled()
         val (head, tail) = path.headTail()
         onPathElement(head, layoutType)
         val resolvedLayout = when (head.value) {
@@ -135,6 +137,7 @@ interface PathTraverser<T> {
                 // so we must abort as soon as we find a layout with an unknown name
                 else {
                     for (type in memberLayouts.partialList()) {
+                        ProgressManager.checkCanceled()
                         if (type.name !is ExactLayoutName) return TopMemoryLayoutType
                         else if ((type.name as ExactLayoutName).name == name) return type
 
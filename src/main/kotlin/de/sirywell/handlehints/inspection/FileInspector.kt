@@ -0,0 +1,40 @@
+package de.sirywell.handlehints.inspection
+
+import com.intellij.codeInspection.ProblemsHolder
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor
+
+/**
+ * Runs the checks of [MethodHandleInvokeInspection] and [MethodHandleEditInspection] on a whole file,
+ * e.g., in batch runs without an editor.
+ *
+ * Both inspections read the same analysis result of the file, so it is computed at most once.
+ */
+object FileInspector {
+    /** The short name of [MethodHandleInvokeInspection] */
+    const val INVOCATION = "MhInvocation"
+
+    /** The short name of [MethodHandleEditInspection] */
+    const val MERGE = "MhMerge"
+
+    fun inspect(file: PsiFile, invocationHolder: ProblemsHolder, mergeHolder: ProblemsHolder) {
+        inspectMerges(file, mergeHolder)
+        inspectInvocations(file, invocationHolder)
+    }
+
+    fun inspectMerges(file: PsiFile, holder: ProblemsHolder) {
+        // reports all problems of the file at once
+        file.accept(MethodHandleEditInspection.Visitor(holder))
+    }
+
+    fun inspectInvocations(file: PsiFile, holder: ProblemsHolder) {
+        val invocationVisitor = MethodHandleInvokeInspection().buildVisitor(holder, false)
+        file.accept(object : PsiRecursiveElementWalkingVisitor() {
+            override fun visitElement(element: PsiElement) {
+                element.accept(invocationVisitor)
+                super.visitElement(element)
+            }
+        })
+    }
+}
@@ -0,0 +1,87 @@
+package de.sirywell.handlehints.inspection
+
+import com.intellij.codeInsight.daemon.HighlightDisplayKey
+import com.intellij.codeInspection.GlobalInspectionContext
+import com.intellij.codeInspection.GlobalSimpleInspectionTool
+import com.intellij.codeInspection.InspectionManager
+import com.intellij.codeInspection.ProblemDescriptionsProcessor
+import com.intellij.codeInspection.ProblemsHolder
+import com.intellij.codeInspection.ex.GlobalInspectionContextBase
+import com.intellij.openapi.fileEditor.FileEditorManager
+import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.UserDataHolderEx
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiJavaFile
+import de.sirywell.handlehints.TypeData
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Reports the problems of [MethodHandleInvokeInspection] or [MethodHandleEditInspection] in batch runs,
+ * each family under its own short name, so they can be suppressed and filtered separately.
+ *
+ * Both batch inspections read the same analysis result of a file. It is released once all enabled
+ * batch inspections have checked the file, so the memory used stays bounded for large scopes.
+ * The result of a file that is open in an editor is kept, as the highlighting of the editor uses it.
+ */
+abstract class MethodHandleBatchInspection : GlobalSimpleInspectionTool() {
+    companion object {
+        private val CHECKED_BY = Key<AtomicInteger>("HandleHints.BatchCheckedBy")
+        private val SHORT_NAMES = listOf(
+            MethodHandleInvocationBatchInspection.SHORT_NAME,
+            MethodHandleMergeBatchInspection.SHORT_NAME
+        )
+    }
+
+    protected abstract fun inspect(file: PsiFile, problemsHolder: ProblemsHolder)
+
+    override fun checkFile(
+        file: PsiFile,
+        manager: InspectionManager,
+        problemsHolder: ProblemsHolder,
+        globalContext: GlobalInspectionContext,
+        problemDescriptionsProcessor: ProblemDescriptionsProcessor
+    ) {
+        if (file !is PsiJavaFile) return
+        try {
+            inspect(file, problemsHolder)
+        } finally {
+            releaseIfChecked(file, globalContext)
+        }
+    }
+
+    // releases the analysis result of file once the last of the enabled batch inspections has checked it,
+    // unless an editor shows the file
+    private fun releaseIfChecked(file: PsiFile, globalContext: GlobalInspectionContext) {
+        val profile = (globalContext as? GlobalInspectionContextBase)?.currentProfile
+        val enabled = if (profile == null) 1 else SHORT_NAMES.count { name ->
+            HighlightDisplayKey.find(name)?.let { profile.isToolEnabled(it, file) } == true
+        }
+        val checked = (file as UserDataHolderEx).putUserDataIfAbsent(CHECKED_BY, AtomicInteger()).incrementAndGet()
+        if (checked >= enabled) {
+            file.putUserData(CHECKED_BY, null)
+            if (!FileEditorManager.getInstance(file.project).isFileOpen(file.virtualFile)) {
+                TypeData.release(file)
+            }
+        }
+    }
+}
+
+class MethodHandleInvocationBatchInspection : MethodHandleBatchInspection() {
+    companion object {
+        const val SHORT_NAME = "MhBatchInvocation"
+    }
+
+    override fun inspect(file: PsiFile, problemsHolder: ProblemsHolder) {
+        FileInspector.inspectInvocations(file, problemsHolder)
+    }
+}
+
+class MethodHandleMergeBatchInspection : MethodHandleBatchInspection() {
+    companion object {
+        const val SHORT_NAME = "MhBatchMerge"
+    }
+
+    override fun inspect(file: PsiFile, problemsHolder: ProblemsHolder) {
+        FileInspector.inspectMerges(file, problemsHolder)
+    }
+}
@@ -2,10 +2,8 @@ package de.sirywell.handlehints.inspection
 
 import com.intellij.codeInspection.LocalInspectionTool
 import com.intellij.codeInspection.ProblemsHolder
-import com.intellij.psi.JavaElementVisitor
-import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiElementVisitor
-import com.intellij.psi.PsiReferenceExpression
+import com.intellij.psi.PsiFile
 import de.sirywell.handlehints.TypeData
 
 class MethodHandleEditInspection : LocalInspectionTool() {
@@ -14,17 +12,19 @@ class MethodHandleEditInspection : LocalInspectionTool() {
         return Visitor(holder)
     }
 
-    class Visitor(private val problemsHolder: ProblemsHolder) : JavaElementVisitor() {
-        override fun visitElement(element: PsiElement) {
-            val reporter = TypeData.forFile(element.containingFile).problemFor(element)
-            if (reporter != null) {
-                reporter(problemsHolder)
-            }
-        }
+    // the problems are reported when visiting the file, which must therefore not be restricted to a changed range
+    override fun runForWholeFile() = true
 
-        override fun visitReferenceExpression(expression: PsiReferenceExpression) {
-            visitElement(expression)
+    /**
+     * Reports all problems of a file when visiting the file itself.
+     *
+     * The problems are looked up by their location, so the other elements of the file are not inspected at all.
+     */
+    class Visitor(private val problemsHolder: ProblemsHolder) : PsiElementVisitor() {
+        override fun visitFile(file: PsiFile) {
+            TypeData.forFile(file).forEachProblem(file) { element, problem ->
+                problem.register(problemsHolder, element)
+            }
         }
-
     }
-}
\ No newline at end of file
+}
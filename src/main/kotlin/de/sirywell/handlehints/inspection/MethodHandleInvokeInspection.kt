@@ -19,12 +19,14 @@ import java.lang.invoke.MethodHandles
 class MethodHandleInvokeInspection : LocalInspectionTool() {
 
     override fun buildVisitor(holder: ProblemsHolder, isOnTheFly: Boolean): PsiElementVisitor {
+        // the visitor looks up the type of each invocation
+        TypeData.forFile(holder.file).prefetch(holder.file)
         return Visitor(holder)
     }
 
     inner class Visitor(private val problemsHolder: ProblemsHolder) : JavaElementVisitor() {
         override fun visitMethodCallExpression(expression: PsiMethodCallExpression) {
-            if (!receiverIsMethodHandle(expression)) return
+            if (expression.apiFamily() != ApiFamily.METHOD_HANDLE) return
             val target = expression.methodExpression.qualifierExpression ?: return
             val typeData = TypeData.forFile(expression.containingFile)
             val type = typeData[target] as? MethodHandleType ?: return
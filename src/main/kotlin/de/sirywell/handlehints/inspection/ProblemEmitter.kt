@@ -1,41 +1,29 @@
 package de.sirywell.handlehints.inspection
 
-import com.intellij.codeInspection.LocalQuickFix
-import com.intellij.codeInspection.ProblemHighlightType
 import com.intellij.psi.PsiClassObjectAccessExpression
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiExpression
 import com.intellij.psi.PsiTypes
-import de.sirywell.handlehints.MethodHandleBundle.message
+import de.sirywell.handlehints.MethodHandleBundle.problemMessage
 import de.sirywell.handlehints.TriState
 import de.sirywell.handlehints.TypeData
 import de.sirywell.handlehints.type.*
-import org.jetbrains.annotations.Nls
 
 abstract class ProblemEmitter(protected val typeData: TypeData) {
 
-    protected inline fun <reified T : TypeLatticeElement<T>> emitProblem(element: PsiElement, message: @Nls String): T {
-        typeData.reportProblem(element) {
-            it.registerProblem(element, message, ProblemHighlightType.GENERIC_ERROR_OR_WARNING)
-        }
-        return topForType<T>()
-    }
-
     protected inline fun <reified T : TypeLatticeElement<T>> emitProblem(
         element: PsiElement,
-        message: @Nls String,
-        vararg quickFixes: LocalQuickFix
+        message: ProblemMessage,
+        vararg quickFixes: FixRecord
     ): T {
-        typeData.reportProblem(element) {
-            it.registerProblem(element, message, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, *quickFixes)
-        }
+        typeData.reportProblem(element, ProblemRecord(message, quickFixes.asList()))
         return topForType<T>()
     }
 
     protected inline fun <reified T : TypeLatticeElement<T>> emitMustNotBeVoid(typeExpr: PsiExpression): T {
         return emitProblem(
             typeExpr,
-            message("problem.merging.general.typeMustNotBe", PsiTypes.voidType().presentableText)
+            problemMessage("problem.merging.general.typeMustNotBe", PsiTypes.voidType().presentableText)
         )
     }
 
@@ -44,7 +32,7 @@ abstract class ProblemEmitter(protected val typeData: TypeData) {
         referenceClass: Type
     ) {
         emitProblem<T>(
-            refc, message(
+            refc, problemMessage(
                 "problem.merging.general.referenceTypeExpectedReturn",
                 referenceClass,
             )
@@ -56,12 +44,12 @@ abstract class ProblemEmitter(protected val typeData: TypeData) {
         referenceClass: Type,
         suggestFix: Boolean
     ): T {
-        val message = message("problem.general.arrayTypeExpected", referenceClass)
+        val message = problemMessage("problem.general.arrayTypeExpected", referenceClass)
         return if (suggestFix) {
             val fix = if (refc is PsiClassObjectAccessExpression) {
-                AddArrayDimensionFix()
+                FixRecord(FixRecord.Kind.ADD_ARRAY_DIMENSION)
             } else {
-                WrapWithInvocationFix("arrayType", false)
+                FixRecord(FixRecord.Kind.APPEND_ARRAY_TYPE)
             }
             emitProblem(refc, message, fix)
 
@@ -76,7 +64,7 @@ abstract class ProblemEmitter(protected val typeData: TypeData) {
         second: Type
     ): MethodHandleType {
         return emitProblem(
-            element, message(
+            element, problemMessage(
                 "problem.merging.general.incompatibleReturnType",
                 first,
                 second
@@ -91,23 +79,20 @@ abstract class ProblemEmitter(protected val typeData: TypeData) {
         exclusive: Boolean
     ): T = if (size != null) {
         if (exclusive) {
-            emitProblem(targetExpr, message("problem.general.position.invalidIndexKnownBoundsExcl", pos, size))
+            emitProblem(targetExpr, problemMessage("problem.general.position.invalidIndexKnownBoundsExcl", pos, size))
         } else {
-            emitProblem(targetExpr, message("problem.general.position.invalidIndexKnownBoundsIncl", pos, size))
+            emitProblem(targetExpr, problemMessage("problem.general.position.invalidIndexKnownBoundsIncl", pos, size))
         }
     } else {
-        emitProblem(targetExpr, message("problem.general.position.invalidIndex", pos))
+        emitProblem(targetExpr, problemMessage("problem.general.position.invalidIndex", pos))
     }
 
-    protected fun emitRedundant(element: PsiElement, message: String, vararg quickFixes: LocalQuickFix) {
-        typeData.reportProblem(element) {
-            it.registerProblem(element, message, ProblemHighlightType.GENERIC_ERROR_OR_WARNING, *quickFixes)
-        }
-
+    protected fun emitRedundant(element: PsiElement, message: ProblemMessage, vararg quickFixes: FixRecord) {
+        typeData.reportProblem(element, ProblemRecord(message, quickFixes.asList()))
     }
 
     protected fun warnOnVoid(expr: PsiExpression, type: Type) : Type {
-        return if (type.joinIdentical(ExactType.voidType).second == TriState.YES) {
+        return if (type.joinIdentical(ExactType.voidType).identical == TriState.YES) {
             emitMustNotBeVoid(expr)
         } else {
             type
@@ -0,0 +1,92 @@
+package de.sirywell.handlehints.inspection
+
+import com.intellij.codeInspection.LocalQuickFix
+import com.intellij.codeInspection.ProblemHighlightType
+import com.intellij.codeInspection.ProblemsHolder
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiExpression
+import de.sirywell.handlehints.MethodHandleBundle
+import de.sirywell.intellij.ReplaceMethodCallFix
+import org.jetbrains.annotations.Nls
+
+/**
+ * A problem found by the analysis, described by data only.
+ *
+ * Records live as long as the cached analysis result of their code block. They are identified by
+ * the location of the element they are reported on, and neither reference PSI nor hold message strings
+ * or quick fix instances. Both are only created when an inspection [registers][register] the problem.
+ */
+class ProblemRecord(
+    val message: ProblemMessage,
+    val fixes: List<FixRecord>,
+    val highlightType: ProblemHighlightType = ProblemHighlightType.GENERIC_ERROR_OR_WARNING
+) {
+
+    fun register(holder: ProblemsHolder, element: PsiElement) {
+        holder.registerProblem(
+            element,
+            message.format(),
+            highlightType,
+            *Array(fixes.size) { fixes[it].create(element) }
+        )
+    }
+}
+
+/**
+ * A message from the [MethodHandleBundle] with its arguments.
+ *
+ * Numbers are kept as they are, so they are formatted as usual. All other arguments, e.g., types,
+ * are converted to their textual representation on creation, so the message doesn't keep them alive.
+ */
+class ProblemMessage private constructor(val key: String, val arguments: Array<Any>) {
+    companion object {
+        fun of(key: String, params: Array<out Any>): ProblemMessage {
+            return ProblemMessage(key, Array(params.size) { params[it] as? Number ?: params[it].toString() })
+        }
+    }
+
+    fun format(): @Nls String = MethodHandleBundle.message(key, *arguments)
+
+    override fun toString() = "$key${arguments.contentToString()}"
+}
+
+/**
+ * A quick fix that is created for the element the problem is reported on.
+ */
+class FixRecord(val kind: Kind, val argument: Long = 0) {
+
+    fun create(element: PsiElement) = kind.create(element, argument)
+
+    enum class Kind {
+        ADD_ARRAY_DIMENSION {
+            override fun create(element: PsiElement, argument: Long) = AddArrayDimensionFix()
+        },
+        APPEND_ARRAY_TYPE {
+            override fun create(element: PsiElement, argument: Long) = WrapWithInvocationFix("arrayType", false)
+        },
+        REMOVE_REDUNDANT_INVOCATION {
+            override fun create(element: PsiElement, argument: Long) = RedundantInvocationFix()
+        },
+        REPLACE_WITH_ZERO {
+            override fun create(element: PsiElement, argument: Long) = ReplaceMethodCallFix("zero") { it.take(1) }
+        },
+
+        /** [argument] is the required padding */
+        ADJUST_PADDING {
+            @Suppress("UnstableApiUsage")
+            override fun create(element: PsiElement, argument: Long): LocalQuickFix {
+                return LocalQuickFix.from(AdjustPaddingFix(element as PsiExpression, argument))!!
+            }
+        },
+
+        /** [argument] is the required alignment */
+        ADJUST_ALIGNMENT {
+            @Suppress("UnstableApiUsage")
+            override fun create(element: PsiElement, argument: Long): LocalQuickFix {
+                return LocalQuickFix.from(AdjustAlignmentFix(element as PsiExpression, argument))!!
+            }
+        };
+
+        abstract fun create(element: PsiElement, argument: Long): LocalQuickFix
+    }
+}
@@ -20,7 +20,7 @@ class LookupHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(ssaAna
         if (!type.returnType.canBe(PsiTypes.voidType())) {
             return emitProblem(
                 typeExpr,
-                MethodHandleBundle.message(
+                MethodHandleBundle.problemMessage(
                     "problem.merging.general.otherReturnTypeExpected",
                     type.returnType,
                     PsiTypes.voidType().presentableText
@@ -6,13 +6,13 @@ import com.intellij.psi.PsiMethodCallExpression
 import com.intellij.psi.PsiPrimitiveType
 import com.intellij.psi.PsiTypes
 import com.intellij.psi.util.parentOfType
-import de.sirywell.handlehints.MethodHandleBundle.message
+import de.sirywell.handlehints.MethodHandleBundle.problemMessage
 import de.sirywell.handlehints.TriState
 import de.sirywell.handlehints.dfa.SsaAnalyzer
 import de.sirywell.handlehints.dfa.SsaConstruction
 import de.sirywell.handlehints.getConstantOfType
+import de.sirywell.handlehints.inspection.FixRecord
 import de.sirywell.handlehints.inspection.ProblemEmitter
-import de.sirywell.handlehints.inspection.RedundantInvocationFix
 import de.sirywell.handlehints.toTriState
 import de.sirywell.handlehints.type.*
 
@@ -36,11 +36,11 @@ class MethodHandleTransformer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmi
         val returnType = convert(qualifierExpr, qualifier.returnType, newType.returnType, false)
         val parameterTypes = convert(qualifierExpr, qualifier.parameterTypes, newType.parameterTypes)
         val complete = complete(returnType, parameterTypes)
-        if (qualifier.joinIdentical(complete).second == TriState.YES) {
+        if (qualifier.joinIdentical(complete).identical == TriState.YES) {
             emitRedundant(
                 newTypeExpr.parentOfType<PsiMethodCallExpression>()!!,
-                message("problem.transforming.asType.redundant"),
-                RedundantInvocationFix()
+                problemMessage("problem.transforming.asType.redundant"),
+                FixRecord(FixRecord.Kind.REMOVE_REDUNDANT_INVOCATION)
             )
         }
         return complete
@@ -55,7 +55,7 @@ class MethodHandleTransformer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmi
         var s0 = oldType.sizeOrNull()
         val s1 = newType.sizeOrNull()
         if (s0 != null && s1 != null && s0 != s1) {
-            return emitProblem(context, message("problem.transforming.asType.parametersSizeMismatch"))
+            return emitProblem(context, problemMessage("problem.transforming.asType.parametersSizeMismatch"))
         }
         val l0 = oldType.partialList()
         val l1 = newType.partialList()
@@ -65,7 +65,7 @@ class MethodHandleTransformer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmi
             CompleteTypeList(list)
         } else {
             // we might lose some params, but that's good enough for an already incomplete list
-            IncompleteTypeList(list.toIndexedMap())
+            IncompleteTypeList(list.toSparseList())
         }
     }
 
@@ -100,7 +100,7 @@ class MethodHandleTransformer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmi
             } else {
                 emitProblem(
                     context,
-                    message(
+                    problemMessage(
                         "problem.transforming.asType.incompatiblePrimitiveConversion",
                         p0.presentableText,
                         p1.presentableText
@@ -116,7 +116,7 @@ class MethodHandleTransformer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmi
             } else {
                 emitProblem(
                     context,
-                    message("problem.transforming.asType.incompatibleBoxing", p0.presentableText, p1.presentableText)
+                    problemMessage("problem.transforming.asType.incompatibleBoxing", p0.presentableText, p1.presentableText)
                 )
             }
         } else {
@@ -124,7 +124,7 @@ class MethodHandleTransformer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmi
             return if (canConvertReferenceToPrimitive(t0, t1)) {
                 if (parameter) t0 else t1
             } else {
-                emitProblem(context, message("problem.transforming.asType.incompatibleToPrimitiveCast", t0, t1))
+                emitProblem(context, problemMessage("problem.transforming.asType.incompatibleToPrimitiveCast", t0, t1))
             }
         }
     }
@@ -155,18 +155,18 @@ class MethodHandleTransformer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmi
             ) {
                 type.parameterTypeAt(0)
             } else {
-                return emitProblem(typeExpr, message("problem.general.parameters.noParameter"))
+                return emitProblem(typeExpr, problemMessage("problem.general.parameters.noParameter"))
             }
         if (firstParamType is ExactType) {
             if (firstParamType.isPrimitive() == TriState.YES) {
                 return emitProblem(
                     typeExpr,
-                    message("problem.merging.general.referenceTypeExpectedParameter", 0, firstParamType)
+                    problemMessage("problem.merging.general.referenceTypeExpectedParameter", 0, firstParamType)
                 )
             } else if (objectType.type != null && !firstParamType.psiType.isConvertibleFrom(objectType.type!!)) {
                 return emitProblem(
                     objectType,
-                    message(
+                    problemMessage(
                         "problem.general.parameters.expected.type",
                         firstParamType,
                         objectType.type!!.presentableText
@@ -187,18 +187,18 @@ class MethodHandleTransformer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmi
         val methodExpr = makeVarargsExpr.parentOfType<PsiMethodCallExpression>()!!
         if (makeVarargs == true) {
             if (qualifier.parameterTypes.compareSize(0) == PartialOrder.EQ) {
-                return emitProblem(qualifierExpr, message("problem.merging.withVarargs.noParameters"))
+                return emitProblem(qualifierExpr, problemMessage("problem.merging.withVarargs.noParameters"))
             } else {
                 val last = qualifier.parameterTypes.lastOrNull() ?: return TopMethodHandleType
                 if (last is ExactType && last.psiType.arrayDimensions == 0) {
-                    return emitProblem(qualifierExpr, message("problem.merging.withVarargs.arrayTypeExpected", last))
+                    return emitProblem(qualifierExpr, problemMessage("problem.merging.withVarargs.arrayTypeExpected", last))
                 }
             }
             if (qualifier.varargs == TriState.YES) {
-                emitRedundant(methodExpr, message("problem.general.invocation.redundant"), RedundantInvocationFix())
+                emitRedundant(methodExpr, problemMessage("problem.general.invocation.redundant"), FixRecord(FixRecord.Kind.REMOVE_REDUNDANT_INVOCATION))
             }
         } else if (makeVarargs == false && qualifier.varargs == TriState.NO) {
-            emitRedundant(methodExpr, message("problem.general.invocation.redundant"), RedundantInvocationFix())
+            emitRedundant(methodExpr, problemMessage("problem.general.invocation.redundant"), FixRecord(FixRecord.Kind.REMOVE_REDUNDANT_INVOCATION))
         }
         return qualifier.withVarargs(makeVarargs.toTriState())
     }
@@ -4,12 +4,12 @@ import com.intellij.codeInspection.dataFlow.types.DfConstantType
 import com.intellij.psi.*
 import com.intellij.psi.util.parentOfType
 import de.sirywell.handlehints.*
-import de.sirywell.handlehints.MethodHandleBundle.message
+import de.sirywell.handlehints.MethodHandleBundle.problemMessage
 import de.sirywell.handlehints.dfa.SsaAnalyzer
 import de.sirywell.handlehints.dfa.SsaConstruction
+import de.sirywell.handlehints.inspection.FixRecord
 import de.sirywell.handlehints.inspection.ProblemEmitter
 import de.sirywell.handlehints.type.*
-import de.sirywell.intellij.ReplaceMethodCallFix
 
 private const val VAR_HANDLE_FQN = "java.lang.invoke.VarHandle"
 private val ZERO_VALUES = setOf(
@@ -100,25 +100,25 @@ class MethodHandlesInitializer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEm
     }
 
     private fun emitMustBeViewHandleSupportedComponentType(expr: PsiExpression, type: Type): Type {
-        return emitProblem<Type>(expr, message("problem.general.array.unsupportedViewHandleComponentType", type))
+        return emitProblem<Type>(expr, problemMessage("problem.general.array.unsupportedViewHandleComponentType", type))
     }
 
     fun constant(typeExpr: PsiExpression, valueExpr: PsiExpression): MethodHandleType {
         val type = typeExpr.asType()
         val valueType = valueExpr.type?.let { ExactType(it) } ?: TopType
         if (type == ExactType.voidType) {
-            return emitProblem(typeExpr, message("problem.creation.arguments.invalid.type", ExactType.voidType))
+            return emitProblem(typeExpr, problemMessage("problem.creation.arguments.invalid.type", ExactType.voidType))
         }
         if (!typesAreCompatible(type, valueType, valueExpr)) {
-            return emitProblem(valueExpr, message("problem.general.parameters.expected.type", type, valueType))
+            return emitProblem(valueExpr, problemMessage("problem.general.parameters.expected.type", type, valueType))
         }
         if (type is ExactType) {
             val dfType = valueExpr.getDfType()
             if (dfType is DfConstantType<*> && ZERO_VALUES.contains(dfType.value)) {
                 emitRedundant(
                     typeExpr.parentOfType<PsiMethodCallExpression>()!!,
-                    message("problem.creation.constant.zero"),
-                    ReplaceMethodCallFix("zero") { it.take(1) }
+                    problemMessage("problem.creation.constant.zero"),
+                    FixRecord(FixRecord.Kind.REPLACE_WITH_ZERO)
                 )
             }
         }
@@ -132,7 +132,7 @@ class MethodHandlesInitializer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEm
     fun identity(typeExpr: PsiExpression): MethodHandleType {
         val type = typeExpr.asType()
         if (type == ExactType.voidType) {
-            return emitProblem(typeExpr, message("problem.merging.general.typeMustNotBe", ExactType.voidType))
+            return emitProblem(typeExpr, problemMessage("problem.merging.general.typeMustNotBe", ExactType.voidType))
         }
         return complete(type, listOf(type))
     }
@@ -211,7 +211,7 @@ class MethodHandlesInitializer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEm
                 if (exact && type.returnType.match(PsiTypes.voidType()) == TriState.YES) {
                     return emitProblem(
                         context,
-                        message("problem.general.returnType.notAllowedX", PsiTypes.voidType().presentableText)
+                        problemMessage("problem.general.returnType.notAllowedX", PsiTypes.voidType().presentableText)
                     )
                 }
 
@@ -221,7 +221,7 @@ class MethodHandlesInitializer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEm
                 if (exact && type.returnType.match(PsiTypes.voidType()) == TriState.NO) {
                     return emitProblem(
                         context,
-                        message("problem.general.returnType.requiredX", PsiTypes.voidType().presentableText)
+                        problemMessage("problem.general.returnType.requiredX", PsiTypes.voidType().presentableText)
                     )
                 }
             }
@@ -230,7 +230,7 @@ class MethodHandlesInitializer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEm
                 if (exact && type.returnType.match(PsiTypes.booleanType()) == TriState.NO) {
                     return emitProblem(
                         context,
-                        message("problem.general.returnType.requiredX", PsiTypes.booleanType().presentableText)
+                        problemMessage("problem.general.returnType.requiredX", PsiTypes.booleanType().presentableText)
                     )
                 }
                 // 2 trailing param types must be equal
@@ -245,7 +245,7 @@ class MethodHandlesInitializer(private val ssaAnalyzer: SsaAnalyzer) : ProblemEm
                 if (exact && type.returnType.match(PsiTypes.voidType()) == TriState.YES) {
                     return emitProblem(
                         context,
-                        message("problem.general.returnType.notAllowedX", PsiTypes.voidType().presentableText)
+                        problemMessage("problem.general.returnType.notAllowedX", PsiTypes.voidType().presentableText)
                     )
                 }
                 // return type must match trailing param
@@ -1,15 +1,16 @@
 package de.sirywell.handlehints.mhtype
 
+import com.intellij.openapi.progress.ProgressManager
 import com.intellij.psi.PsiExpression
 import com.intellij.psi.PsiMethodCallExpression
 import com.intellij.psi.PsiTypes
 import com.intellij.psi.util.parentOfType
 import de.sirywell.handlehints.*
-import de.sirywell.handlehints.MethodHandleBundle.message
+import de.sirywell.handlehints.MethodHandleBundle.problemMessage
 import de.sirywell.handlehints.dfa.SsaAnalyzer
 import de.sirywell.handlehints.dfa.SsaConstruction
+import de.sirywell.handlehints.inspection.FixRecord
 import de.sirywell.handlehints.inspection.ProblemEmitter
-import de.sirywell.handlehints.inspection.RedundantInvocationFix
 import de.sirywell.handlehints.type.*
 
 /**
@@ -38,7 +39,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         ) {
             emitProblem<MethodHandleType>(
                 handlerExpr,
-                message("problem.merging.catchException.missingException", exType)
+                problemMessage("problem.merging.catchException.missingException", exType)
             )
         }
         val returnType = if (target.returnType != handler.returnType) {
@@ -52,7 +53,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         if (!comparableTypes.effectivelyIdenticalTo(target.parameterTypes)) {
             emitProblem<MethodHandleType>(
                 targetExpr,
-                message(
+                problemMessage(
                     "problem.merging.general.effectivelyIdenticalParametersExpected",
                     target,
                     comparableTypes
@@ -75,7 +76,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         if (parameters is CompleteTypeLatticeElementList && pos >= parameters.size) {
             return emitProblem(
                 posExpr,
-                message("problem.general.position.invalidIndexKnownBoundsExcl", pos, parameters.size)
+                problemMessage("problem.general.position.invalidIndexKnownBoundsExcl", pos, parameters.size)
             )
         }
         val returnType = filter.returnType
@@ -247,8 +248,8 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         if (target.returnType == ExactType.voidType) {
             emitRedundant(
                 targetExpr.parentOfType<PsiMethodCallExpression>()!!,
-                message("problem.transforming.dropReturn.redundant"),
-                RedundantInvocationFix()
+                problemMessage("problem.transforming.dropReturn.redundant"),
+                FixRecord(FixRecord.Kind.REMOVE_REDUNDANT_INVOCATION)
             )
         }
         return target.withReturnType(ExactType.voidType)
@@ -309,13 +310,13 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         when (target.returnType.match(PsiTypes.voidType())) {
             TriState.YES -> if (compareTo0 == PartialOrder.GT) {
                 // filter expects parameters when target returns void...
-                return emitProblem(filterExpr, message("problem.merging.filterReturnValue.voidButParameters"))
+                return emitProblem(filterExpr, problemMessage("problem.merging.filterReturnValue.voidButParameters"))
             }
 
             TriState.UNKNOWN -> if (compareTo1 == PartialOrder.GT) {
                 return emitProblem(
                     filterExpr,
-                    message("problem.merging.filterReturnValue.filterMustHaveAtMostOneParameter")
+                    problemMessage("problem.merging.filterReturnValue.filterMustHaveAtMostOneParameter")
                 )
             }
 
@@ -323,19 +324,19 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
                 if (compareTo0 == PartialOrder.EQ) {
                     return emitProblem(
                         filterExpr,
-                        message("problem.merging.filterReturnValue.filterMustHaveParameterOfType", target.returnType)
+                        problemMessage("problem.merging.filterReturnValue.filterMustHaveParameterOfType", target.returnType)
                     )
                 } else if (compareTo1 == PartialOrder.GT) {
                     return emitProblem(
                         filterExpr,
-                        message("problem.merging.filterReturnValue.filterMustHaveAtMostOneParameter")
+                        problemMessage("problem.merging.filterReturnValue.filterMustHaveAtMostOneParameter")
                     )
                 }
                 val filterParameter = filter.parameterTypeAt(0)
-                if (filterParameter.joinIdentical(target.returnType).second == TriState.NO) {
+                if (filterParameter.joinIdentical(target.returnType).identical == TriState.NO) {
                     return emitProblem(
                         filterExpr,
-                        message(
+                        problemMessage(
                             "problem.merging.filterReturnValue.incompatibleFilterParameter",
                             filterParameter,
                             target.returnType
@@ -412,7 +413,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
             val valueTypesIndex = parameterList.sizeOrNull()?.minus(pos)
             val expr = valueTypesIndex?.let { valueTypes.getOrNull(it) }
             if (expr != null) {
-                return emitProblem(expr, message("problem.general.position.invalidIndexOffset", valueTypesIndex + pos))
+                return emitProblem(expr, problemMessage("problem.general.position.invalidIndexOffset", valueTypesIndex + pos))
             }
             return emitOutOfBounds(parameterList.sizeOrNull()?.toLong(), posExpr, pos.toLong(), false)
         }
@@ -442,7 +443,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         if (outParams.sizeMatches { it != reorder.size } == TriState.YES) {
             return emitProblem(
                 newTypeExpr,
-                message("problem.merging.permute.reorderLengthMismatch", reorder.size, outParams.sizeOrNull()!!)
+                problemMessage("problem.merging.permute.reorderLengthMismatch", reorder.size, outParams.sizeOrNull()!!)
             )
         }
         // if reorder array is unknown, just assume the input is correct
@@ -451,16 +452,17 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
             ?.typeList?.toMutableList()
             ?: return topType
         for ((index, value) in reorderInts.withIndex()) {
+            ProgressManager.checkCanceled()
             if (inParams.compareSize(value + 1) == PartialOrder.LT) {
                 emitProblem<MethodHandleType>(
                     reorder[index],
-                    message("problem.merging.permute.invalidReorderIndex", 0, inParams.sizeOrNull()!!, value)
+                    problemMessage("problem.merging.permute.invalidReorderIndex", 0, inParams.sizeOrNull()!!, value)
                 )
                 resultType[index] = TopType
             } else if (outParams[index] != inParams[value]) {
                 emitProblem<MethodHandleType>(
                     reorder[index],
-                    message(
+                    problemMessage(
                         "problem.merging.permute.invalidReorderIndexType",
                         outParams[index],
                         inParams[value]
@@ -480,7 +482,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         block: SsaConstruction.Block
     ): MethodHandleType {
         if (targetsExprs.isEmpty()) {
-            emitProblem<MethodHandleType>(fallbackExpr.parent, message("problem.merging.tableSwitch.noCases"))
+            emitProblem<MethodHandleType>(fallbackExpr.parent, problemMessage("problem.merging.tableSwitch.noCases"))
         }
         val fallback = ssaAnalyzer.methodHandleType(fallbackExpr, block) ?: bottomType
         var error = checkFirstParameter(fallback.parameterTypes, fallbackExpr)
@@ -491,9 +493,10 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         val cases = targets.map { it }
         var prev = fallback
         for ((index, case) in cases.withIndex()) {
+            ProgressManager.checkCanceled()
             val (signature, identical) = prev.joinIdentical(case)
             if (identical == TriState.NO) {
-                emitProblem<MethodHandleType>(targetsExprs[index], message("problem.merging.tableSwitch.notIdentical"))
+                emitProblem<MethodHandleType>(targetsExprs[index], problemMessage("problem.merging.tableSwitch.notIdentical"))
                 error = true
             }
             prev = signature
@@ -508,7 +511,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         if (typeList.compareSize(1) == PartialOrder.LT
             || typeList[0].match(PsiTypes.intType()) == TriState.NO
         ) {
-            emitProblem<MethodHandleType>(context, message("problem.merging.tableSwitch.leadingInt"))
+            emitProblem<MethodHandleType>(context, problemMessage("problem.merging.tableSwitch.leadingInt"))
             return true
         }
         return false
@@ -525,7 +528,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         if (identical == TriState.NO) {
             emitProblem<MethodHandleType>(
                 cleanupExpr,
-                message("problem.merging.tryFinally.returnTypeMismatch", target.returnType, cleanup.returnType)
+                problemMessage("problem.merging.tryFinally.returnTypeMismatch", target.returnType, cleanup.returnType)
             )
         }
         val isVoid = target.returnType.match(PsiTypes.voidType())
@@ -537,7 +540,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
         if (cleanup.parameterTypes.sizeMatches { it < leading } == TriState.YES) {
             emitProblem<MethodHandleType>(
                 cleanupExpr,
-                message(
+                problemMessage(
                     "problem.merging.tryFinally.missingCleanupParameters",
                     leading,
                     cleanup.parameterTypes.sizeOrNull() ?: 0
@@ -545,10 +548,10 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
             )
         }
         // TODO 0th param must be <= Throwable
-        if (isVoid == TriState.NO && cleanup.parameterTypes[1].joinIdentical(newReturn).second == TriState.NO) {
+        if (isVoid == TriState.NO && cleanup.parameterTypes[1].joinIdentical(newReturn).identical == TriState.NO) {
             emitProblem<MethodHandleType>(
                 cleanupExpr,
-                message("problem.merging.tryFinally.secondParameter", cleanup.parameterTypes[1], newReturn)
+                problemMessage("problem.merging.tryFinally.secondParameter", cleanup.parameterTypes[1], newReturn)
             )
         }
         val aList = cleanup.parameterTypes.dropFirst(leading) as? CompleteTypeLatticeElementList ?: return topType
@@ -567,7 +570,7 @@ class MethodHandlesMerger(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter
     fun PsiExpression.nonNegativeInt(): Int? {
         return this.getConstantOfType<Int>()?.let {
             if (it < 0) {
-                emitProblem<MethodHandleType>(this, message("problem.general.position.invalidIndexNegative", it))
+                emitProblem<MethodHandleType>(this, problemMessage("problem.general.position.invalidIndexNegative", it))
                 return null
             }
             return it
@@ -3,11 +3,11 @@ package de.sirywell.handlehints.mhtype
 import com.intellij.psi.PsiExpression
 import com.intellij.psi.PsiMethodCallExpression
 import com.intellij.psi.util.parentOfType
-import de.sirywell.handlehints.MethodHandleBundle.message
+import de.sirywell.handlehints.MethodHandleBundle.problemMessage
 import de.sirywell.handlehints.dfa.SsaAnalyzer
 import de.sirywell.handlehints.dfa.SsaConstruction
+import de.sirywell.handlehints.inspection.FixRecord
 import de.sirywell.handlehints.inspection.ProblemEmitter
-import de.sirywell.handlehints.inspection.RedundantInvocationFix
 import de.sirywell.handlehints.type.BotVarHandleType
 import de.sirywell.handlehints.type.KnownInvocationBehavior
 import de.sirywell.handlehints.type.KnownInvocationBehavior.INVOKE
@@ -33,8 +33,8 @@ class VarHandleHelper(private val ssaAnalyzer: SsaAnalyzer) : ProblemEmitter(ssa
         if (invocationBehavior == behavior) {
             emitRedundant(
                 targetExpr.parentOfType<PsiMethodCallExpression>()!!,
-                message("problem.transforming.varHandleInvokeBehavior.redundant", behavior.readableName),
-                RedundantInvocationFix()
+                problemMessage("problem.transforming.varHandleInvokeBehavior.redundant", behavior.readableName),
+                FixRecord(FixRecord.Kind.REMOVE_REDUNDANT_INVOCATION)
             )
         }
         return varHandleType.withInvokeBehavior(behavior)
@@ -5,6 +5,7 @@ import com.intellij.openapi.components.service
 import com.intellij.openapi.editor.Editor
 import com.intellij.openapi.project.DumbService
 import com.intellij.psi.PsiFile
+import de.sirywell.handlehints.TypeData
 
 class TypeInlayProvider : InlayHintsProvider {
 
@@ -13,6 +14,8 @@ class TypeInlayProvider : InlayHintsProvider {
         editor: Editor
     ): com.intellij.codeInsight.hints.declarative.InlayHintsCollector? {
         if (file.project.service<DumbService>().isDumb) return null
+        // the collector looks up the type of each element
+        TypeData.forFile(file).prefetch(file)
         return TypeInlayHintsCollector()
     }
 }
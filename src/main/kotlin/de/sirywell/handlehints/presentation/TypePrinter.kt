@@ -67,12 +67,12 @@ class TypePrinter : TypeVisitor<TypePrinter.PrintContext, Unit> {
 
     override fun visit(type: IncompleteTypeList, context: PrintContext) {
         context.append("(")
-        type.knownTypes.onEachIndexed { index, (pos, t) ->
-            if (index != 0) {
+        for (position in 0..<type.knownTypes.size) {
+            if (position != 0) {
                 context.append(",")
             }
-            context.append("$pos").append("=")
-            t.accept(this, context)
+            context.append("${type.knownTypes.keyAt(position)}").append("=")
+            type.knownTypes.valueAt(position).accept(this, context)
         }
         context.append(")")
     }
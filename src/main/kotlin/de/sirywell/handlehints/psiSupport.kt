@@ -6,7 +6,8 @@ import com.intellij.codeInspection.dataFlow.types.DfType
 import com.intellij.psi.*
 import com.intellij.psi.impl.source.resolve.reference.impl.JavaReflectionReferenceUtil
 import com.intellij.psi.search.GlobalSearchScope
-import com.intellij.psi.util.PsiTypesUtil
+import de.sirywell.handlehints.dfa.AnalysisContext
+import de.sirywell.handlehints.dfa.AnalysisMetrics
 import de.sirywell.handlehints.type.*
 import java.lang.invoke.MethodHandle
 import java.lang.invoke.MethodHandles
@@ -21,89 +22,89 @@ fun findPsiType(qName: String, context: PsiElement) =
 fun isJavaLangInvoke(element: PsiMethodCallExpression) =
     (element.resolveMethod()?.containingClass?.containingFile as? PsiJavaFile)?.packageName == "java.lang.invoke"
 
-fun receiverIsInvokeClass(element: PsiMethodCallExpression, className: String) =
-    element.resolveMethod()?.containingClass?.qualifiedName == "java.lang.invoke.$className"
-
-fun receiverIsMethodHandle(element: PsiMethodCallExpression) =
-    receiverIsInvokeClass(element, "MethodHandle")
-
-fun receiverIsVarHandle(element: PsiMethodCallExpression) =
-    receiverIsInvokeClass(element, "VarHandle")
-
-fun receiverIsMethodHandles(element: PsiMethodCallExpression) =
-    receiverIsInvokeClass(element, "MethodHandles")
-
-fun receiverIsMethodType(element: PsiMethodCallExpression) = receiverIsInvokeClass(element, "MethodType")
-
-fun receiverIsLookup(element: PsiMethodCallExpression) = receiverIsInvokeClass(element, "MethodHandles.Lookup")
-
-fun receiverIsMemoryLayout(element: PsiMethodCallExpression): Boolean {
-    val superType = findPsiType("java.lang.foreign.MemoryLayout", element)
-    val actual = PsiTypesUtil.getClassType(element.resolveMethod()?.containingClass ?: return false)
-    return superType.isAssignableFrom(actual)
-}
-
-fun receiverIsPathElement(element: PsiMethodCallExpression): Boolean {
-    return element.resolveMethod()?.containingClass?.qualifiedName == "java.lang.foreign.MemoryLayout.PathElement"
-}
+/**
+ * The API classes whose methods are interpreted by the analysis.
+ */
+enum class ApiFamily {
+    METHOD_TYPE,
+    METHOD_HANDLES,
+    METHOD_HANDLE,
+    VAR_HANDLE,
+    LOOKUP,
+    MEMORY_LAYOUT,
+    PATH_ELEMENT,
+    FUNCTION_DESCRIPTOR,
+    LINKER;
+
+    companion object {
+        private val byQualifiedName = buildMap {
+            put("java.lang.invoke.MethodType", METHOD_TYPE)
+            put("java.lang.invoke.MethodHandles", METHOD_HANDLES)
+            put("java.lang.invoke.MethodHandle", METHOD_HANDLE)
+            put("java.lang.invoke.VarHandle", VAR_HANDLE)
+            put("java.lang.invoke.MethodHandles.Lookup", LOOKUP)
+            // MemoryLayout is sealed, so we know all subtypes
+            MEMORY_LAYOUT_TYPE_NAMES.forEach { put(it, MEMORY_LAYOUT) }
+            put("java.lang.foreign.MemoryLayout.PathElement", PATH_ELEMENT)
+            put("java.lang.foreign.FunctionDescriptor", FUNCTION_DESCRIPTOR)
+            put("java.lang.foreign.Linker", LINKER)
+        }
 
-fun receiverIsFunctionDescriptor(element: PsiMethodCallExpression): Boolean {
-    return element.resolveMethod()?.containingClass?.qualifiedName == "java.lang.foreign.FunctionDescriptor"
+        fun of(psiClass: PsiClass?): ApiFamily? = byQualifiedName[psiClass?.qualifiedName ?: return null]
+    }
 }
 
-fun receiverIsLinker(element: PsiMethodCallExpression): Boolean {
-    return element.resolveMethod()?.containingClass?.qualifiedName == "java.lang.foreign.Linker"
-}
+/**
+ * Returns the [ApiFamily] of the class declaring the called method, resolving the method only once.
+ */
+fun PsiMethodCallExpression.apiFamily() = ApiFamily.of(resolveMethod()?.containingClass)
 
 fun methodHandleType(element: PsiElement): PsiClassType {
-    return findPsiType("java.lang.invoke.MethodHandle", element)
+    return KnownTypes.of(element).methodHandle
 }
 
 fun varHandleType(element: PsiElement): PsiClassType {
-    return findPsiType("java.lang.invoke.VarHandle", element)
+    return KnownTypes.of(element).varHandle
 }
 
 fun methodTypeType(element: PsiElement): PsiClassType {
-    return findPsiType("java.lang.invoke.MethodType", element)
+    return KnownTypes.of(element).methodType
 }
 
 fun pathElementType(element: PsiElement): PsiClassType {
-    return findPsiType("java.lang.foreign.MemoryLayout.PathElement", element)
+    return KnownTypes.of(element).pathElement
 }
 
 fun functionDescriptorType(element: PsiElement): PsiClassType {
-    return findPsiType("java.lang.foreign.FunctionDescriptor", element)
+    return KnownTypes.of(element).functionDescriptor
 }
 
 fun objectType(element: PsiElement): PsiType {
     return PsiType.getJavaLangObject(element.manager, element.resolveScope)
 }
 
+// https://docs.oracle.com/en/java/javase/22/docs/api/java.base/java/lang/foreign/MemoryLayout-sealed-graph.svg
+internal val MEMORY_LAYOUT_TYPE_NAMES = listOf(
+    "java.lang.foreign.MemoryLayout",
+    "java.lang.foreign.SequenceLayout",
+    "java.lang.foreign.GroupLayout",
+    "java.lang.foreign.StructLayout",
+    "java.lang.foreign.UnionLayout",
+    "java.lang.foreign.PaddingLayout",
+    "java.lang.foreign.ValueLayout",
+    "java.lang.foreign.ValueLayout.OfBoolean",
+    "java.lang.foreign.ValueLayout.OfByte",
+    "java.lang.foreign.ValueLayout.OfChar",
+    "java.lang.foreign.ValueLayout.OfShort",
+    "java.lang.foreign.ValueLayout.OfInt",
+    "java.lang.foreign.ValueLayout.OfFloat",
+    "java.lang.foreign.ValueLayout.OfLong",
+    "java.lang.foreign.ValueLayout.OfDouble",
+    "java.lang.foreign.AddressLayout",
+)
+
 fun memoryLayoutTypes(context: PsiElement): Set<PsiType> {
-    // use a cache here
-    return object {
-        // https://docs.oracle.com/en/java/javase/22/docs/api/java.base/java/lang/foreign/MemoryLayout-sealed-graph.svg
-        val memoryLayoutTypes = listOf(
-            "java.lang.foreign.MemoryLayout",
-            "java.lang.foreign.SequenceLayout",
-            "java.lang.foreign.GroupLayout",
-            "java.lang.foreign.StructLayout",
-            "java.lang.foreign.UnionLayout",
-            "java.lang.foreign.PaddingLayout",
-            "java.lang.foreign.ValueLayout",
-            "java.lang.foreign.ValueLayout.OfBoolean",
-            "java.lang.foreign.ValueLayout.OfByte",
-            "java.lang.foreign.ValueLayout.OfChar",
-            "java.lang.foreign.ValueLayout.OfShort",
-            "java.lang.foreign.ValueLayout.OfInt",
-            "java.lang.foreign.ValueLayout.OfFloat",
-            "java.lang.foreign.ValueLayout.OfLong",
-            "java.lang.foreign.ValueLayout.OfDouble",
-            "java.lang.foreign.AddressLayout",
-        )
-            .map { findPsiType(it, context) }
-            .toSet()
-    }.memoryLayoutTypes
+    return KnownTypes.of(context).memoryLayouts
 }
 
 
@@ -134,7 +135,7 @@ val getDataflowResult: MethodHandle = run {
 }
 
 inline fun <reified T> PsiExpression.getConstantOfType(): T? {
-    return getDfType()?.getConstantOfType(T::class.java)
+    return ConstantEvaluator.constantOf(this, T::class.java)
 }
 
 inline fun <reified T> DfType.getConstantOfType(): T? {
@@ -158,6 +159,16 @@ fun Collection<PsiExpression>.mapToTypes(check: (PsiExpression, Type) -> Type =
 }
 
 fun PsiExpression.asType(): Type {
+    val cache = AnalysisContext.current()?.reflectiveTypes ?: return computeType()
+    cache[this]?.let {
+        AnalysisMetrics.increment(AnalysisMetrics.Counter.REFLECTIVE_TYPE_HITS)
+        return it
+    }
+    AnalysisMetrics.increment(AnalysisMetrics.Counter.REFLECTIVE_TYPE_MISSES)
+    return computeType().also { cache[this] = it }
+}
+
+private fun PsiExpression.computeType(): Type {
     return (JavaReflectionReferenceUtil.getReflectiveType(this)?.type
         ?: getConstantOfType<PsiType>())
         ?.let { ExactType(it) }
@@ -195,11 +206,23 @@ fun isUnrelated(variable: PsiVariable): Boolean {
     return isUnrelated(variable.type, variable)
 }
 
+private val RELATED_TYPE_NAMES = setOf(
+    "java.lang.invoke.MethodType",
+    "java.lang.invoke.MethodHandle",
+    "java.lang.invoke.VarHandle",
+    "java.lang.foreign.MemoryLayout.PathElement",
+    "java.lang.foreign.FunctionDescriptor",
+) + MEMORY_LAYOUT_TYPE_NAMES
+
+private val RELATED_SIMPLE_NAMES = RELATED_TYPE_NAMES.map { it.substringAfterLast('.') }.toSet()
+
 fun isUnrelated(type: PsiType, context: PsiElement): Boolean {
-    return type != methodTypeType(context)
-            && type != methodHandleType(context)
-            && type != varHandleType(context)
-            && type != pathElementType(context)
-            && type != functionDescriptorType(context)
-            && type !in memoryLayoutTypes(context)
+    // none of the related types is generic, so comparing the class is enough.
+    // The simple name is known without resolving the type, which allows a fast exit.
+    if (type !is PsiClassType || type.className !in RELATED_SIMPLE_NAMES) return true
+    val psiClass = type.resolve() ?: return true
+    val relatedClasses = KnownTypes.of(context).relatedClasses
+    if (psiClass in relatedClasses) return false
+    // the PSI of a library class can be recreated after the known types were cached
+    return relatedClasses.none { it.isEquivalentTo(psiClass) }
 }
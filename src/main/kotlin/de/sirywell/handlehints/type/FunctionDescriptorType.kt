@@ -12,7 +12,9 @@ sealed interface FunctionDescriptorType : FunctionType<FunctionDescriptorType, M
 }
 
 data object BotFunctionDescriptorType : FunctionDescriptorType, BotTypeLatticeElement<FunctionDescriptorType> {
-    override fun joinIdentical(other: FunctionDescriptorType) = other to TriState.UNKNOWN
+    override fun joinIdentical(other: FunctionDescriptorType): JoinResult<FunctionDescriptorType> {
+        return JoinResult(other, TriState.UNKNOWN)
+    }
 
     override fun withReturnType(returnType: MemoryLayoutType) =
         CompleteFunctionDescriptorType(parameterTypes, returnType)
@@ -33,7 +35,9 @@ data object BotFunctionDescriptorType : FunctionDescriptorType, BotTypeLatticeEl
 
 
 data object TopFunctionDescriptorType : FunctionDescriptorType, TopTypeLatticeElement<FunctionDescriptorType> {
-    override fun joinIdentical(other: FunctionDescriptorType) = this to TriState.UNKNOWN
+    override fun joinIdentical(other: FunctionDescriptorType): JoinResult<FunctionDescriptorType> {
+        return JoinResult(this, TriState.UNKNOWN)
+    }
 
     override fun withReturnType(returnType: MemoryLayoutType) = this
 
@@ -51,10 +55,23 @@ data object TopFunctionDescriptorType : FunctionDescriptorType, TopTypeLatticeEl
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
 }
 
-data class CompleteFunctionDescriptorType(
+@ConsistentCopyVisibility
+data class CompleteFunctionDescriptorType private constructor(
     override val parameterTypes: TypeLatticeElementList<MemoryLayoutType>,
     override val returnType: MemoryLayoutType
-) : FunctionDescriptorType, CompleteFunctionType<FunctionDescriptorType, MemoryLayoutType> {
+) : InternedElement<FunctionDescriptorType>(), FunctionDescriptorType,
+    CompleteFunctionType<FunctionDescriptorType, MemoryLayoutType> {
+    companion object {
+        operator fun invoke(parameterTypes: TypeLatticeElementList<MemoryLayoutType>, returnType: MemoryLayoutType) =
+            TypeInterner.intern(CompleteFunctionDescriptorType::class.java, parameterTypes, returnType) {
+                CompleteFunctionDescriptorType(parameterTypes, returnType)
+            }
+    }
+
+    override fun joinIdentical(other: FunctionDescriptorType): JoinResult<FunctionDescriptorType> {
+        return joinCached(other) { super<CompleteFunctionType>.joinIdentical(other) }
+    }
+
     override fun withParameterTypes(parameterTypes: List<MemoryLayoutType>): FunctionDescriptorType {
         return withParameterTypes(CompleteMemoryLayoutList(parameterTypes))
     }
@@ -75,7 +92,7 @@ data class CompleteFunctionDescriptorType(
         returnType: MemoryLayoutType,
         parameterTypes: TypeLatticeElementList<MemoryLayoutType>
     ): FunctionDescriptorType {
-        return CompleteFunctionDescriptorType(parameterTypes, returnType)
+        return CompleteFunctionDescriptorType.invoke(parameterTypes, returnType)
     }
 }
 
@@ -89,8 +106,8 @@ private fun mapMemoryLayoutListToTypeList(parameterTypes: MemoryLayoutList, memo
         }
 
         is IncompleteTypeLatticeElementList -> {
-            val params = parameterTypes.knownTypes.mapValues { (_, v) -> memoryLayoutToType(v, memorySegmentType) }
-            IncompleteTypeList(params.toSortedMap())
+            val params = parameterTypes.knownTypes.mapValues { memoryLayoutToType(it, memorySegmentType) }
+            IncompleteTypeList(params)
         }
     }
 }
@@ -19,10 +19,10 @@ sealed interface FunctionType<S : FunctionType<S, T>, T : TypeLatticeElement<T>>
 }
 
 sealed interface CompleteFunctionType<S : FunctionType<S, T>, T : TypeLatticeElement<T>> : FunctionType<S, T> {
-    override fun joinIdentical(other: S): Pair<S, TriState> {
+    override fun joinIdentical(other: S): JoinResult<S> {
         val (ret, rIdentical) = returnType.joinIdentical(other.returnType)
         val (params, pIdentical) = parameterTypes.joinIdentical(other.parameterTypes)
-        return copy(ret, params) to rIdentical.sharpenTowardsNo(pIdentical)
+        return JoinResult(copy(ret, params), rIdentical.sharpenTowardsNo(pIdentical))
     }
 
     override fun withReturnType(returnType: T): S {
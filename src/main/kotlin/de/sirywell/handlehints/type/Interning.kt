@@ -0,0 +1,117 @@
+package de.sirywell.handlehints.type
+
+import com.intellij.util.containers.ContainerUtil
+import de.sirywell.handlehints.TriState
+import de.sirywell.handlehints.dfa.AnalysisContext
+import de.sirywell.handlehints.dfa.AnalysisMetrics
+
+/**
+ * Base class of lattice elements that are hash-consed by [TypeInterner].
+ *
+ * Structurally identical elements share one instance, so equality and hashing are identity-based.
+ * Interned classes have a private constructor and create instances through `invoke` of their companion object.
+ * Within the class itself, the constructor takes precedence, so the companion must be called explicitly there.
+ */
+abstract class InternedElement<LE : TypeLatticeElement<LE>> {
+    // racy, but results are immutable and recomputing them gives an equal result
+    @PublishedApi
+    internal var selfJoin: JoinResult<LE>? = null
+
+    final override fun equals(other: Any?) = this === other
+
+    final override fun hashCode() = System.identityHashCode(this)
+
+    /**
+     * Returns the result of [join] for this element and [other], computing it only if it isn't known yet.
+     *
+     * Joining an element with itself always results in the same element,
+     * and whether it is identical to itself only depends on the element. So this is computed once per instance.
+     * Joins with top or bottom are trivial and computed directly, all others are looked up in the [JoinCache]
+     * of the current [AnalysisContext], if there is one.
+     */
+    protected inline fun joinCached(other: LE, join: () -> JoinResult<LE>): JoinResult<LE> {
+        if (other === this) {
+            return selfJoin ?: join().also { selfJoin = it }
+        }
+        if (other is TopTypeLatticeElement<*> || other is BotTypeLatticeElement<*>) {
+            return join()
+        }
+        val cache = AnalysisContext.current()?.joins ?: return join()
+        cache[this, other]?.let {
+            @Suppress("UNCHECKED_CAST")
+            return it as JoinResult<LE>
+        }
+        return join().also { cache[this, other] = it }
+    }
+
+    /**
+     * Returns the result of joining this element with an identical one, for elements that don't have components.
+     * The result is allocated once per instance.
+     */
+    protected fun identicalJoin(): JoinResult<LE> {
+        @Suppress("UNCHECKED_CAST")
+        return selfJoin ?: JoinResult(this as LE, TriState.YES).also { selfJoin = it }
+    }
+}
+
+/**
+ * Hash-conses lattice elements, so structurally identical elements share one instance.
+ *
+ * The components of an interned element are interned themselves,
+ * so looking up an element only compares its direct components.
+ * Types outlive a single analysis, e.g., field types are joined with types of other code blocks,
+ * so the table is shared. Entries are weakly referenced and vanish once no analysis result uses them.
+ * As the table is shared, components must not refer to the PSI of a single code block, see [ExactType.invoke].
+ */
+internal object TypeInterner {
+    private val table = ContainerUtil.createConcurrentWeakValueMap<List<Any?>, Any>()
+
+    fun <T : Any> intern(kind: Class<T>, vararg components: Any?, create: () -> T): T {
+        val key = listOf(kind, *components)
+        table[key]?.let { return kind.cast(it) }
+        val created = create()
+        return kind.cast(table.putIfAbsent(key, created) ?: created)
+    }
+}
+
+/**
+ * Remembers the results of recent joins of interned elements within one [AnalysisContext].
+ *
+ * The same pairs of types are joined over and over, e.g., at each phi of a loop and for each merger check.
+ * As the operands are interned, a pair is identified by the identity of its elements.
+ * The cache is direct-mapped with a fixed number of slots, a new pair replaces the pair that used its slot before.
+ * It belongs to the context of the analysis pass, so it doesn't keep types alive after the pass ends,
+ * and it is only accessed by the thread running the pass.
+ */
+@PublishedApi
+internal class JoinCache {
+    private companion object {
+        // must be a power of two
+        const val SIZE = 1024
+    }
+
+    private class Entry(val first: Any, val second: Any, val result: JoinResult<*>)
+
+    // most passes only join a few types, so the slots are allocated on the first join
+    private var entries: Array<Entry?>? = null
+
+    operator fun get(first: Any, second: Any): JoinResult<*>? {
+        val entry = entries?.get(slot(first, second))
+        if (entry != null && entry.first === first && entry.second === second) {
+            AnalysisMetrics.increment(AnalysisMetrics.Counter.JOIN_CACHE_HITS)
+            return entry.result
+        }
+        AnalysisMetrics.increment(AnalysisMetrics.Counter.JOIN_CACHE_MISSES)
+        return null
+    }
+
+    operator fun set(first: Any, second: Any, result: JoinResult<*>) {
+        val entries = entries ?: arrayOfNulls<Entry>(SIZE).also { entries = it }
+        entries[slot(first, second)] = Entry(first, second, result)
+    }
+
+    private fun slot(first: Any, second: Any): Int {
+        val hash = System.identityHashCode(first) * 31 + System.identityHashCode(second)
+        return (hash xor (hash ushr 16)) and (SIZE - 1)
+    }
+}
@@ -3,7 +3,6 @@ package de.sirywell.handlehints.type
 import de.sirywell.handlehints.TriState
 import de.sirywell.handlehints.toTriState
 import org.jetbrains.uast.util.isInstanceOf
-import java.util.*
 
 @TypeInfo(TopMemoryLayoutType::class)
 sealed interface MemoryLayoutType : TypeLatticeElement<MemoryLayoutType> {
@@ -40,49 +39,66 @@ data object TopMemoryLayoutType : MemoryLayoutType, TopTypeLatticeElement<Memory
 
 sealed interface ValueLayoutType : MemoryLayoutType
 
-data class AddressLayoutType(
+@ConsistentCopyVisibility
+data class AddressLayoutType private constructor(
     val targetLayout: MemoryLayoutType?, // null denotes EXPLICITLY no target layout
     override val byteAlignment: Long?,
     override val byteSize: Long?,
     override val name: LayoutName
-) : ValueLayoutType {
+) : InternedElement<MemoryLayoutType>(), ValueLayoutType {
+    companion object {
+        operator fun invoke(targetLayout: MemoryLayoutType?, byteAlignment: Long?, byteSize: Long?, name: LayoutName) =
+            TypeInterner.intern(AddressLayoutType::class.java, targetLayout, byteAlignment, byteSize, name) {
+                AddressLayoutType(targetLayout, byteAlignment, byteSize, name)
+            }
 
-    constructor(byteAlignment: Long?, byteSize: Long?) : this(null, byteAlignment, byteSize, WITHOUT_NAME)
+        operator fun invoke(byteAlignment: Long?, byteSize: Long?) =
+            invoke(null, byteAlignment, byteSize, WITHOUT_NAME)
+    }
 
     override fun withByteAlignment(byteAlignment: Long): MemoryLayoutType {
-        return AddressLayoutType(targetLayout, byteAlignment, byteSize, name)
+        return AddressLayoutType.invoke(targetLayout, byteAlignment, byteSize, name)
     }
 
     override fun withName(name: LayoutName): MemoryLayoutType {
-        return AddressLayoutType(targetLayout, byteAlignment, byteSize, name)
+        return AddressLayoutType.invoke(targetLayout, byteAlignment, byteSize, name)
     }
 
     fun withTargetLayout(targetLayout: MemoryLayoutType?): AddressLayoutType {
-        return AddressLayoutType(targetLayout, byteAlignment, byteSize, name)
+        return AddressLayoutType.invoke(targetLayout, byteAlignment, byteSize, name)
     }
 
-    override fun joinIdentical(other: MemoryLayoutType): Pair<MemoryLayoutType, TriState> {
+    override fun joinIdentical(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        return joinCached(other) { joinComponents(other) }
+    }
+
+    private fun joinComponents(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
         if (other is AddressLayoutType) {
-            val (targetLayout, identicalTargetLayout) = other.targetLayout?.let { this.targetLayout?.joinIdentical(it) }
-            // if both are null, they are the same in this aspect
-                ?: if (other.targetLayout == null && this.targetLayout == null) null to TriState.YES
+            val joinedTargetLayout = other.targetLayout?.let { this.targetLayout?.joinIdentical(it) }
+            val (targetLayout, identicalTargetLayout) =
+                if (joinedTargetLayout != null) joinedTargetLayout.type to joinedTargetLayout.identical
+                // if both are null, they are the same in this aspect
+                else if (other.targetLayout == null && this.targetLayout == null) null to TriState.YES
                 // if only one is null, they are definitely not the same
                 else TopMemoryLayoutType to TriState.NO
             val (identicalAlignment, identicalSize) = joinSizeAndAlignment(this, other)
             val (name, identicalName) = name.joinIdentical(other.name)
-            return AddressLayoutType(
-                targetLayout,
-                if (identicalAlignment == TriState.YES) this.byteAlignment else null,
-                if (identicalSize == TriState.YES) this.byteSize else null,
-                name
-            ) to identicalTargetLayout
-                .sharpenTowardsNo(identicalAlignment)
-                .sharpenTowardsNo(identicalSize)
-                .sharpenTowardsNo(identicalName)
+            return JoinResult(
+                AddressLayoutType.invoke(
+                    targetLayout,
+                    if (identicalAlignment == TriState.YES) this.byteAlignment else null,
+                    if (identicalSize == TriState.YES) this.byteSize else null,
+                    name
+                ),
+                identicalTargetLayout
+                    .sharpenTowardsNo(identicalAlignment)
+                    .sharpenTowardsNo(identicalSize)
+                    .sharpenTowardsNo(identicalName)
+            )
         } else if (other is BotMemoryLayoutType) {
-            return this to TriState.UNKNOWN
+            return JoinResult(this, TriState.UNKNOWN)
         }
-        return TopMemoryLayoutType to TriState.UNKNOWN
+        return JoinResult(TopMemoryLayoutType, TriState.UNKNOWN)
 
     }
 
@@ -94,138 +110,198 @@ data class AddressLayoutType(
 val WITHOUT_NAME = ExactLayoutName(null)
 val VOID_RETURN_TYPE = NormalValueLayoutType(ExactType.voidType, null, null, WITHOUT_NAME)
 
-data class NormalValueLayoutType(
+@ConsistentCopyVisibility
+data class NormalValueLayoutType private constructor(
     val type: Type,
     override val byteAlignment: Long?,
     override val byteSize: Long?,
     override val name: LayoutName
-) : ValueLayoutType {
+) : InternedElement<MemoryLayoutType>(), ValueLayoutType {
+    companion object {
+        operator fun invoke(type: Type, byteAlignment: Long?, byteSize: Long?, name: LayoutName) =
+            TypeInterner.intern(NormalValueLayoutType::class.java, type, byteAlignment, byteSize, name) {
+                NormalValueLayoutType(type, byteAlignment, byteSize, name)
+            }
 
-    constructor(type: Type, byteAlignment: Long?, byteSize: Long?) : this(type, byteAlignment, byteSize, WITHOUT_NAME)
+        operator fun invoke(type: Type, byteAlignment: Long?, byteSize: Long?) =
+            invoke(type, byteAlignment, byteSize, WITHOUT_NAME)
+    }
 
-    override fun joinIdentical(other: MemoryLayoutType): Pair<MemoryLayoutType, TriState> {
+    override fun joinIdentical(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        return joinCached(other) { joinComponents(other) }
+    }
+
+    private fun joinComponents(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
         if (other is NormalValueLayoutType) {
             val (new, identical) = this.type.joinIdentical(other.type)
             val (identicalAlignment, identicalSize) = joinSizeAndAlignment(this, other)
             val (name, identicalName) = name.joinIdentical(other.name)
-            return NormalValueLayoutType(
-                new,
-                if (identicalAlignment == TriState.YES) this.byteAlignment else null,
-                if (identicalSize == TriState.YES) this.byteSize else null,
-                name
-            ) to identical
-                .sharpenTowardsNo(identicalAlignment)
-                .sharpenTowardsNo(identicalSize)
-                .sharpenTowardsNo(identicalName)
+            return JoinResult(
+                NormalValueLayoutType.invoke(
+                    new,
+                    if (identicalAlignment == TriState.YES) this.byteAlignment else null,
+                    if (identicalSize == TriState.YES) this.byteSize else null,
+                    name
+                ),
+                identical
+                    .sharpenTowardsNo(identicalAlignment)
+                    .sharpenTowardsNo(identicalSize)
+                    .sharpenTowardsNo(identicalName)
+            )
         } else if (other is BotMemoryLayoutType) {
-            return this to TriState.UNKNOWN
+            return JoinResult(this, TriState.UNKNOWN)
         }
-        return TopMemoryLayoutType to TriState.UNKNOWN
+        return JoinResult(TopMemoryLayoutType, TriState.UNKNOWN)
     }
 
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
 
-    override fun withByteAlignment(byteAlignment: Long) = NormalValueLayoutType(type, byteAlignment, byteSize, name)
-    override fun withName(name: LayoutName) = NormalValueLayoutType(type, byteAlignment, byteSize, name)
+    override fun withByteAlignment(byteAlignment: Long) = NormalValueLayoutType.invoke(type, byteAlignment, byteSize, name)
+    override fun withName(name: LayoutName) = NormalValueLayoutType.invoke(type, byteAlignment, byteSize, name)
 }
 
 sealed interface GroupLayoutType : MemoryLayoutType {
     val memberLayouts: MemoryLayoutList
 }
 
-data class StructLayoutType(
+@ConsistentCopyVisibility
+data class StructLayoutType private constructor(
     override val memberLayouts: MemoryLayoutList,
     override val byteAlignment: Long?,
     override val byteSize: Long?,
     override val name: LayoutName
-) : GroupLayoutType {
+) : InternedElement<MemoryLayoutType>(), GroupLayoutType {
+    companion object {
+        operator fun invoke(memberLayouts: MemoryLayoutList, byteAlignment: Long?, byteSize: Long?, name: LayoutName) =
+            TypeInterner.intern(StructLayoutType::class.java, memberLayouts, byteAlignment, byteSize, name) {
+                StructLayoutType(memberLayouts, byteAlignment, byteSize, name)
+            }
+    }
+
     override fun withByteAlignment(byteAlignment: Long) =
-        StructLayoutType(this.memberLayouts, byteSize, byteAlignment, name)
+        StructLayoutType.invoke(this.memberLayouts, byteSize, byteAlignment, name)
 
-    override fun withName(name: LayoutName) = StructLayoutType(memberLayouts, byteAlignment, byteSize, name)
+    override fun withName(name: LayoutName) = StructLayoutType.invoke(memberLayouts, byteAlignment, byteSize, name)
+
+    override fun joinIdentical(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        return joinCached(other) { joinComponents(other) }
+    }
 
-    override fun joinIdentical(other: MemoryLayoutType): Pair<MemoryLayoutType, TriState> {
-        if (other is BotMemoryLayoutType) return this to TriState.UNKNOWN
-        if (other !is StructLayoutType) return TopMemoryLayoutType to TriState.UNKNOWN
+    private fun joinComponents(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        if (other is BotMemoryLayoutType) return JoinResult(this, TriState.UNKNOWN)
+        if (other !is StructLayoutType) return JoinResult(TopMemoryLayoutType, TriState.UNKNOWN)
         val (members, identical) = this.memberLayouts.joinIdentical(other.memberLayouts)
         val (identicalAlignment, identicalSize) = joinSizeAndAlignment(this, other)
         val (name, identicalName) = name.joinIdentical(other.name)
-        return StructLayoutType(
-            members,
-            if (identicalAlignment == TriState.YES) this.byteAlignment else null,
-            if (identicalSize == TriState.YES) this.byteSize else null,
-            name
-        ) to identical
-            .sharpenTowardsNo(identicalAlignment)
-            .sharpenTowardsNo(identicalSize)
-            .sharpenTowardsNo(identicalName)
+        return JoinResult(
+            StructLayoutType.invoke(
+                members,
+                if (identicalAlignment == TriState.YES) this.byteAlignment else null,
+                if (identicalSize == TriState.YES) this.byteSize else null,
+                name
+            ),
+            identical
+                .sharpenTowardsNo(identicalAlignment)
+                .sharpenTowardsNo(identicalSize)
+                .sharpenTowardsNo(identicalName)
+        )
     }
 
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
 }
 
-data class UnionLayoutType(
+@ConsistentCopyVisibility
+data class UnionLayoutType private constructor(
     override val memberLayouts: MemoryLayoutList,
     override val byteAlignment: Long?,
     override val byteSize: Long?,
     override val name: LayoutName
-) : GroupLayoutType {
+) : InternedElement<MemoryLayoutType>(), GroupLayoutType {
+    companion object {
+        operator fun invoke(memberLayouts: MemoryLayoutList, byteAlignment: Long?, byteSize: Long?, name: LayoutName) =
+            TypeInterner.intern(UnionLayoutType::class.java, memberLayouts, byteAlignment, byteSize, name) {
+                UnionLayoutType(memberLayouts, byteAlignment, byteSize, name)
+            }
+    }
+
     override fun withByteAlignment(byteAlignment: Long): MemoryLayoutType {
-        return UnionLayoutType(this.memberLayouts, byteSize, byteAlignment, name)
+        return UnionLayoutType.invoke(this.memberLayouts, byteSize, byteAlignment, name)
     }
 
-    override fun withName(name: LayoutName) = UnionLayoutType(memberLayouts, byteAlignment, byteSize, name)
+    override fun withName(name: LayoutName) = UnionLayoutType.invoke(memberLayouts, byteAlignment, byteSize, name)
+
+    override fun joinIdentical(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        return joinCached(other) { joinComponents(other) }
+    }
 
-    override fun joinIdentical(other: MemoryLayoutType): Pair<MemoryLayoutType, TriState> {
-        if (other is BotMemoryLayoutType) return this to TriState.UNKNOWN
-        if (other !is UnionLayoutType) return TopMemoryLayoutType to TriState.UNKNOWN
+    private fun joinComponents(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        if (other is BotMemoryLayoutType) return JoinResult(this, TriState.UNKNOWN)
+        if (other !is UnionLayoutType) return JoinResult(TopMemoryLayoutType, TriState.UNKNOWN)
         // TODO it might make sense to ignore order here?
         val (members, identical) = this.memberLayouts.joinIdentical(other.memberLayouts)
         val (identicalAlignment, identicalSize) = joinSizeAndAlignment(this, other)
         val (name, identicalName) = name.joinIdentical(other.name)
-        return UnionLayoutType(
-            members,
-            if (identicalAlignment == TriState.YES) this.byteAlignment else null,
-            if (identicalSize == TriState.YES) this.byteSize else null,
-            name
-        ) to identical
-            .sharpenTowardsNo(identicalAlignment)
-            .sharpenTowardsNo(identicalSize)
-            .sharpenTowardsNo(identicalName)
+        return JoinResult(
+            UnionLayoutType.invoke(
+                members,
+                if (identicalAlignment == TriState.YES) this.byteAlignment else null,
+                if (identicalSize == TriState.YES) this.byteSize else null,
+                name
+            ),
+            identical
+                .sharpenTowardsNo(identicalAlignment)
+                .sharpenTowardsNo(identicalSize)
+                .sharpenTowardsNo(identicalName)
+        )
     }
 
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
 }
 
-data class SequenceLayoutType(
+@ConsistentCopyVisibility
+data class SequenceLayoutType private constructor(
     val elementLayout: MemoryLayoutType,
     val elementCount: Long?,
     override val byteAlignment: Long?,
     override val name: LayoutName
-) : MemoryLayoutType {
+) : InternedElement<MemoryLayoutType>(), MemoryLayoutType {
+    companion object {
+        operator fun invoke(elementLayout: MemoryLayoutType, elementCount: Long?, byteAlignment: Long?, name: LayoutName) =
+            TypeInterner.intern(SequenceLayoutType::class.java, elementLayout, elementCount, byteAlignment, name) {
+                SequenceLayoutType(elementLayout, elementCount, byteAlignment, name)
+            }
+    }
+
     override fun withByteAlignment(byteAlignment: Long): MemoryLayoutType {
-        return SequenceLayoutType(this.elementLayout, this.elementCount, byteAlignment, name)
+        return SequenceLayoutType.invoke(this.elementLayout, this.elementCount, byteAlignment, name)
     }
 
-    override fun withName(name: LayoutName) = SequenceLayoutType(elementLayout, elementCount, byteAlignment, name)
+    override fun withName(name: LayoutName) = SequenceLayoutType.invoke(elementLayout, elementCount, byteAlignment, name)
 
     override val byteSize = elementCount?.let { elementLayout.byteSize?.times(it) }
 
-    override fun joinIdentical(other: MemoryLayoutType): Pair<MemoryLayoutType, TriState> {
-        if (other is BotMemoryLayoutType) return this to TriState.UNKNOWN
-        if (other !is SequenceLayoutType) return TopMemoryLayoutType to TriState.UNKNOWN
+    override fun joinIdentical(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        return joinCached(other) { joinComponents(other) }
+    }
+
+    private fun joinComponents(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        if (other is BotMemoryLayoutType) return JoinResult(this, TriState.UNKNOWN)
+        if (other !is SequenceLayoutType) return JoinResult(TopMemoryLayoutType, TriState.UNKNOWN)
         val (element, identical) = this.elementLayout.joinIdentical(other.elementLayout)
         val (identicalAlignment, identicalSize) = joinElementCountAndAlignment(this, other)
         val (name, identicalName) = name.joinIdentical(other.name)
-        return SequenceLayoutType(
-            element,
-            if (identicalSize == TriState.YES) this.byteSize else null,
-            if (identicalAlignment == TriState.YES) this.byteAlignment else null,
-            name
-        ) to identical
-            .sharpenTowardsNo(identicalAlignment)
-            .sharpenTowardsNo(identicalSize)
-            .sharpenTowardsNo(identicalName)
+        return JoinResult(
+            SequenceLayoutType.invoke(
+                element,
+                if (identicalSize == TriState.YES) this.byteSize else null,
+                if (identicalAlignment == TriState.YES) this.byteAlignment else null,
+                name
+            ),
+            identical
+                .sharpenTowardsNo(identicalAlignment)
+                .sharpenTowardsNo(identicalSize)
+                .sharpenTowardsNo(identicalName)
+        )
     }
 
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C): R {
@@ -234,28 +310,42 @@ data class SequenceLayoutType(
 
 }
 
-data class PaddingLayoutType(
+@ConsistentCopyVisibility
+data class PaddingLayoutType private constructor(
     override val byteAlignment: Long?,
     override val byteSize: Long?,
     override val name: LayoutName
-) : MemoryLayoutType {
+) : InternedElement<MemoryLayoutType>(), MemoryLayoutType {
+    companion object {
+        operator fun invoke(byteAlignment: Long?, byteSize: Long?, name: LayoutName) =
+            TypeInterner.intern(PaddingLayoutType::class.java, byteAlignment, byteSize, name) {
+                PaddingLayoutType(byteAlignment, byteSize, name)
+            }
+    }
+
     override fun withByteAlignment(byteAlignment: Long): MemoryLayoutType {
-        return PaddingLayoutType(byteAlignment, byteSize, name)
+        return PaddingLayoutType.invoke(byteAlignment, byteSize, name)
     }
 
-    override fun withName(name: LayoutName) = PaddingLayoutType(byteAlignment, byteSize, name)
+    override fun withName(name: LayoutName) = PaddingLayoutType.invoke(byteAlignment, byteSize, name)
+
+    override fun joinIdentical(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        return joinCached(other) { joinComponents(other) }
+    }
 
-    override fun joinIdentical(other: MemoryLayoutType): Pair<MemoryLayoutType, TriState> {
-        if (other is BotMemoryLayoutType) return this to TriState.UNKNOWN
-        if (other !is PaddingLayoutType) return TopMemoryLayoutType to TriState.UNKNOWN
+    private fun joinComponents(other: MemoryLayoutType): JoinResult<MemoryLayoutType> {
+        if (other is BotMemoryLayoutType) return JoinResult(this, TriState.UNKNOWN)
+        if (other !is PaddingLayoutType) return JoinResult(TopMemoryLayoutType, TriState.UNKNOWN)
         val (identicalAlignment, identicalSize) = joinSizeAndAlignment(this, other)
         val (name, identicalName) = name.joinIdentical(other.name)
-        return PaddingLayoutType(
-            if (identicalAlignment == TriState.YES) this.byteAlignment else null,
-            if (identicalSize == TriState.YES) this.byteSize else null,
-            name
-
-        ) to identicalAlignment.sharpenTowardsNo(identicalSize).sharpenTowardsNo(identicalName)
+        return JoinResult(
+            PaddingLayoutType.invoke(
+                if (identicalAlignment == TriState.YES) this.byteAlignment else null,
+                if (identicalSize == TriState.YES) this.byteSize else null,
+                name
+            ),
+            identicalAlignment.sharpenTowardsNo(identicalSize).sharpenTowardsNo(identicalName)
+        )
     }
 
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C): R {
@@ -288,7 +378,7 @@ data object TopMemoryLayoutList : TopTypeLatticeElementList<MemoryLayoutType>()
     override fun bot() = BotMemoryLayoutType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<MemoryLayoutType>) = CompleteMemoryLayoutList(list)
-    override fun incomplete(list: SortedMap<Int, MemoryLayoutType>) = IncompleteMemoryLayoutList(list)
+    override fun incomplete(list: SparseList<MemoryLayoutType>) = IncompleteMemoryLayoutList(list)
 
 }
 
@@ -299,44 +389,65 @@ data object BotMemoryLayoutList : BotTypeLatticeElementList<MemoryLayoutType>()
     override fun bot() = BotMemoryLayoutType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<MemoryLayoutType>) = CompleteMemoryLayoutList(list)
-    override fun incomplete(list: SortedMap<Int, MemoryLayoutType>) = IncompleteMemoryLayoutList(list)
+    override fun incomplete(list: SparseList<MemoryLayoutType>) = IncompleteMemoryLayoutList(list)
 }
 
-class CompleteMemoryLayoutList(list: List<MemoryLayoutType>) : CompleteTypeLatticeElementList<MemoryLayoutType>(list) {
+class CompleteMemoryLayoutList private constructor(list: PersistentList<MemoryLayoutType>) : CompleteTypeLatticeElementList<MemoryLayoutType>(list) {
+    companion object {
+        operator fun invoke(list: List<MemoryLayoutType>): CompleteMemoryLayoutList {
+            val copy = PersistentList.copyOf(list)
+            return TypeInterner.intern(CompleteMemoryLayoutList::class.java, copy) { CompleteMemoryLayoutList(copy) }
+        }
+    }
+
     override fun topList() = TopMemoryLayoutList
     override fun botList() = BotMemoryLayoutList
     override fun top() = TopMemoryLayoutType
     override fun bot() = BotMemoryLayoutType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
-    override fun complete(list: List<MemoryLayoutType>) = CompleteMemoryLayoutList(list)
-    override fun incomplete(list: SortedMap<Int, MemoryLayoutType>) = IncompleteMemoryLayoutList(list)
+    override fun complete(list: List<MemoryLayoutType>) = CompleteMemoryLayoutList.invoke(list)
+    override fun incomplete(list: SparseList<MemoryLayoutType>) = IncompleteMemoryLayoutList(list)
 }
 
-class IncompleteMemoryLayoutList(knowParameterTypes: SortedMap<Int, MemoryLayoutType>) :
+class IncompleteMemoryLayoutList private constructor(knowParameterTypes: SparseList<MemoryLayoutType>) :
     IncompleteTypeLatticeElementList<MemoryLayoutType>(knowParameterTypes) {
+    companion object {
+        operator fun invoke(knowParameterTypes: SparseList<MemoryLayoutType>): IncompleteMemoryLayoutList {
+            return TypeInterner.intern(IncompleteMemoryLayoutList::class.java, knowParameterTypes) {
+                IncompleteMemoryLayoutList(knowParameterTypes)
+            }
+        }
+    }
+
     override fun topList() = TopMemoryLayoutList
     override fun botList() = BotMemoryLayoutList
     override fun top() = TopMemoryLayoutType
     override fun bot() = BotMemoryLayoutType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<MemoryLayoutType>) = CompleteMemoryLayoutList(list)
-    override fun incomplete(list: SortedMap<Int, MemoryLayoutType>) = IncompleteMemoryLayoutList(list)
+    override fun incomplete(list: SparseList<MemoryLayoutType>) = IncompleteMemoryLayoutList.invoke(list)
 }
 
 @TypeInfo(TopLayoutName::class)
 sealed interface LayoutName : TypeLatticeElement<LayoutName>
 
-data class ExactLayoutName(val name: String?) : LayoutName {
-    override fun joinIdentical(other: LayoutName): Pair<LayoutName, TriState> {
+@ConsistentCopyVisibility
+data class ExactLayoutName private constructor(val name: String?) : InternedElement<LayoutName>(), LayoutName {
+    companion object {
+        operator fun invoke(name: String?) =
+            TypeInterner.intern(ExactLayoutName::class.java, name) { ExactLayoutName(name) }
+    }
+
+    override fun joinIdentical(other: LayoutName): JoinResult<LayoutName> {
         if (other is ExactLayoutName) {
             if (this.name == other.name) {
-                return this to TriState.YES
+                return JoinResult(this, TriState.YES)
             }
-            return TopLayoutName to TriState.NO
+            return JoinResult(TopLayoutName, TriState.NO)
         }
-        if (other is TopLayoutName) return TopLayoutName to TriState.UNKNOWN
+        if (other is TopLayoutName) return JoinResult(TopLayoutName, TriState.UNKNOWN)
         // BotLayoutName
-        return this to TriState.UNKNOWN
+        return JoinResult(this, TriState.UNKNOWN)
     }
 
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
@@ -384,17 +495,17 @@ data class SelectingOpenSequenceElementVariant(val start: Long?, val step: Long?
 }
 
 data class SequenceElementType(val variant: SequenceElementVariant) : PathElementType {
-    override fun joinIdentical(other: PathElementType): Pair<PathElementType, TriState> {
+    override fun joinIdentical(other: PathElementType): JoinResult<PathElementType> {
         return when (other) {
-            TopPathElementType -> other to TriState.UNKNOWN
-            BotPathElementType -> this to TriState.UNKNOWN
+            TopPathElementType -> JoinResult(other, TriState.UNKNOWN)
+            BotPathElementType -> JoinResult(this, TriState.UNKNOWN)
             is SequenceElementType -> {
-                if (variant.isEqualTo(other.variant) == TriState.NO) return this to TriState.YES
-                return TopPathElementType to TriState.NO
+                if (variant.isEqualTo(other.variant) == TriState.NO) return JoinResult(this, TriState.YES)
+                return JoinResult(TopPathElementType, TriState.NO)
             }
 
             is GroupElementType,
-            DereferenceElementType -> TopPathElementType to TriState.NO
+            DereferenceElementType -> JoinResult(TopPathElementType, TriState.NO)
         }
     }
 
@@ -424,17 +535,17 @@ data class NameGroupElementVariant(val name: String?) : GroupElementVariant {
 }
 
 data class GroupElementType(val variant: GroupElementVariant) : PathElementType {
-    override fun joinIdentical(other: PathElementType): Pair<PathElementType, TriState> {
+    override fun joinIdentical(other: PathElementType): JoinResult<PathElementType> {
         return when (other) {
-            TopPathElementType -> other to TriState.UNKNOWN
-            BotPathElementType -> this to TriState.UNKNOWN
+            TopPathElementType -> JoinResult(other, TriState.UNKNOWN)
+            BotPathElementType -> JoinResult(this, TriState.UNKNOWN)
             is GroupElementType -> {
-                if (variant.isEqualTo(other.variant) == TriState.NO) return this to TriState.YES
-                return TopPathElementType to TriState.NO
+                if (variant.isEqualTo(other.variant) == TriState.NO) return JoinResult(this, TriState.YES)
+                return JoinResult(TopPathElementType, TriState.NO)
             }
 
             is SequenceElementType,
-            DereferenceElementType -> TopPathElementType to TriState.NO
+            DereferenceElementType -> JoinResult(TopPathElementType, TriState.NO)
         }
     }
 
@@ -442,16 +553,16 @@ data class GroupElementType(val variant: GroupElementVariant) : PathElementType
 }
 
 data object DereferenceElementType : PathElementType {
-    override fun joinIdentical(other: PathElementType): Pair<PathElementType, TriState> {
+    override fun joinIdentical(other: PathElementType): JoinResult<PathElementType> {
         return when (other) {
-            TopPathElementType -> other to TriState.UNKNOWN
-            BotPathElementType -> this to TriState.UNKNOWN
+            TopPathElementType -> JoinResult(other, TriState.UNKNOWN)
+            BotPathElementType -> JoinResult(this, TriState.UNKNOWN)
             DereferenceElementType -> {
-                return this to TriState.YES
+                return JoinResult(this, TriState.YES)
             }
 
             is SequenceElementType,
-            is GroupElementType -> TopPathElementType to TriState.NO
+            is GroupElementType -> JoinResult(TopPathElementType, TriState.NO)
         }
     }
 
@@ -477,7 +588,7 @@ data object TopPathElementList : TopTypeLatticeElementList<PathElementType>() {
     override fun bot() = BotPathElementType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<PathElementType>) = CompletePathElementList(list)
-    override fun incomplete(list: SortedMap<Int, PathElementType>) = IncompletePathElementList(list)
+    override fun incomplete(list: SparseList<PathElementType>) = IncompletePathElementList(list)
 
 }
 
@@ -488,26 +599,41 @@ data object BotPathElementList : BotTypeLatticeElementList<PathElementType>() {
     override fun bot() = BotPathElementType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<PathElementType>) = CompletePathElementList(list)
-    override fun incomplete(list: SortedMap<Int, PathElementType>) = IncompletePathElementList(list)
+    override fun incomplete(list: SparseList<PathElementType>) = IncompletePathElementList(list)
 }
 
-class CompletePathElementList(list: List<PathElementType>) : CompleteTypeLatticeElementList<PathElementType>(list) {
+class CompletePathElementList private constructor(list: PersistentList<PathElementType>) : CompleteTypeLatticeElementList<PathElementType>(list) {
+    companion object {
+        operator fun invoke(list: List<PathElementType>): CompletePathElementList {
+            val copy = PersistentList.copyOf(list)
+            return TypeInterner.intern(CompletePathElementList::class.java, copy) { CompletePathElementList(copy) }
+        }
+    }
+
     override fun topList() = TopPathElementList
     override fun botList() = BotPathElementList
     override fun top() = TopPathElementType
     override fun bot() = BotPathElementType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
-    override fun complete(list: List<PathElementType>) = CompletePathElementList(list)
-    override fun incomplete(list: SortedMap<Int, PathElementType>) = IncompletePathElementList(list)
+    override fun complete(list: List<PathElementType>) = CompletePathElementList.invoke(list)
+    override fun incomplete(list: SparseList<PathElementType>) = IncompletePathElementList(list)
 }
 
-class IncompletePathElementList(knowParameterTypes: SortedMap<Int, PathElementType>) :
+class IncompletePathElementList private constructor(knowParameterTypes: SparseList<PathElementType>) :
     IncompleteTypeLatticeElementList<PathElementType>(knowParameterTypes) {
+    companion object {
+        operator fun invoke(knowParameterTypes: SparseList<PathElementType>): IncompletePathElementList {
+            return TypeInterner.intern(IncompletePathElementList::class.java, knowParameterTypes) {
+                IncompletePathElementList(knowParameterTypes)
+            }
+        }
+    }
+
     override fun topList() = TopPathElementList
     override fun botList() = BotPathElementList
     override fun top() = TopPathElementType
     override fun bot() = BotPathElementType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<PathElementType>) = CompletePathElementList(list)
-    override fun incomplete(list: SortedMap<Int, PathElementType>) = IncompletePathElementList(list)
+    override fun incomplete(list: SparseList<PathElementType>) = IncompletePathElementList.invoke(list)
 }
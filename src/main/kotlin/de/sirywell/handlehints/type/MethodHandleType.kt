@@ -13,7 +13,9 @@ sealed interface MethodHandleType : FunctionType<MethodHandleType, Type> {
 }
 
 data object BotMethodHandleType : MethodHandleType, BotTypeLatticeElement<MethodHandleType> {
-    override fun joinIdentical(other: MethodHandleType) = other to TriState.UNKNOWN
+    override fun joinIdentical(other: MethodHandleType): JoinResult<MethodHandleType> {
+        return JoinResult(other, TriState.UNKNOWN)
+    }
 
     override fun withReturnType(returnType: Type) =
         CompleteMethodHandleType(returnType, parameterTypes, TriState.NO)
@@ -36,7 +38,9 @@ data object BotMethodHandleType : MethodHandleType, BotTypeLatticeElement<Method
 
 
 data object TopMethodHandleType : MethodHandleType, TopTypeLatticeElement<MethodHandleType> {
-    override fun joinIdentical(other: MethodHandleType) = this to TriState.UNKNOWN
+    override fun joinIdentical(other: MethodHandleType): JoinResult<MethodHandleType> {
+        return JoinResult(this, TriState.UNKNOWN)
+    }
 
     override fun withReturnType(returnType: Type) =
         CompleteMethodHandleType(returnType, parameterTypes, varargs)
@@ -57,12 +61,22 @@ data object TopMethodHandleType : MethodHandleType, TopTypeLatticeElement<Method
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
 }
 
-@JvmRecord
-data class CompleteMethodHandleType(
+@ConsistentCopyVisibility
+data class CompleteMethodHandleType private constructor(
     override val returnType: Type,
     override val parameterTypes: TypeList,
     override val varargs: TriState
-) : MethodHandleType, CompleteFunctionType<MethodHandleType, Type> {
+) : InternedElement<MethodHandleType>(), MethodHandleType, CompleteFunctionType<MethodHandleType, Type> {
+    companion object {
+        operator fun invoke(returnType: Type, parameterTypes: TypeList, varargs: TriState) =
+            TypeInterner.intern(CompleteMethodHandleType::class.java, returnType, parameterTypes, varargs) {
+                CompleteMethodHandleType(returnType, parameterTypes, varargs)
+            }
+    }
+
+    override fun joinIdentical(other: MethodHandleType): JoinResult<MethodHandleType> {
+        return joinCached(other) { super<CompleteFunctionType>.joinIdentical(other) }
+    }
 
     override fun copy(returnType: Type, parameterTypes: TypeLatticeElementList<Type>): MethodHandleType {
         return complete(returnType, parameterTypes)
@@ -71,7 +85,7 @@ data class CompleteMethodHandleType(
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
 
     override fun withVarargs(varargs: TriState): MethodHandleType {
-        return CompleteMethodHandleType(returnType, parameterTypes, varargs)
+        return CompleteMethodHandleType.invoke(returnType, parameterTypes, varargs)
     }
 
     override fun toString(): String {
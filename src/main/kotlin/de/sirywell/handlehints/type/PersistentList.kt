@@ -0,0 +1,236 @@
+package de.sirywell.handlehints.type
+
+/**
+ * An immutable list that shares structure with the lists it is derived from.
+ *
+ * The elements are stored in small chunks at the leaves of a height-balanced tree,
+ * so [setAt], [insertAllAt], [removeRange], [subList] and [concat] only copy O(log n) nodes.
+ * Each node also knows the [List.hashCode] of its elements, so hashing a derived list doesn't visit all elements.
+ */
+class PersistentList<out E> private constructor(private val root: Node?) : AbstractList<E>() {
+    companion object {
+        private const val CHUNK_SIZE = 32
+        private val EMPTY = PersistentList<Nothing>(null)
+
+        fun <E> empty(): PersistentList<E> = EMPTY
+
+        /**
+         * Returns [elements] as a persistent list. Persistent lists are returned as they are.
+         */
+        fun <E> copyOf(elements: List<E>): PersistentList<E> {
+            if (elements is PersistentList<E>) return elements
+            if (elements.isEmpty()) return EMPTY
+            // build the tree bottom-up, pairing neighbours per level keeps it balanced
+            var level: List<Node> = elements.chunked(CHUNK_SIZE) { Leaf(it.toTypedArray()) }
+            while (level.size > 1) {
+                level = level.chunked(2) { if (it.size == 2) Branch(it[0], it[1]) else it[0] }
+            }
+            return PersistentList(level[0])
+        }
+
+        private fun set(node: Node, index: Int, element: Any?): Node {
+            return when (node) {
+                is Leaf -> Leaf(node.elements.copyOf().also { it[index] = element })
+                is Branch -> if (index < node.left.size) {
+                    Branch(set(node.left, index, element), node.right)
+                } else {
+                    Branch(node.left, set(node.right, index - node.left.size, element))
+                }
+            }
+        }
+
+        // the first n elements of node
+        private fun take(node: Node?, n: Int): Node? {
+            if (node == null || n <= 0) return null
+            if (n >= node.size) return node
+            return when (node) {
+                is Leaf -> Leaf(node.elements.copyOfRange(0, n))
+                is Branch -> if (n <= node.left.size) {
+                    take(node.left, n)
+                } else {
+                    concat(node.left, take(node.right, n - node.left.size))
+                }
+            }
+        }
+
+        // all but the first n elements of node
+        private fun drop(node: Node?, n: Int): Node? {
+            if (node == null || n <= 0) return node
+            if (n >= node.size) return null
+            return when (node) {
+                is Leaf -> Leaf(node.elements.copyOfRange(n, node.size))
+                is Branch -> if (n >= node.left.size) {
+                    drop(node.right, n - node.left.size)
+                } else {
+                    concat(drop(node.left, n), node.right)
+                }
+            }
+        }
+
+        private fun concat(left: Node?, right: Node?): Node? {
+            if (left == null) return right
+            if (right == null) return left
+            if (left is Leaf && right is Leaf && left.size + right.size <= CHUNK_SIZE) {
+                return Leaf(arrayOf(*left.elements, *right.elements))
+            }
+            // descend along the inner spine of the higher tree until both sides have a similar height
+            if (left.height > right.height + 1) {
+                left as Branch
+                return balance(left.left, concat(left.right, right)!!)
+            }
+            if (right.height > left.height + 1) {
+                right as Branch
+                return balance(concat(left, right.left)!!, right.right)
+            }
+            return Branch(left, right)
+        }
+
+        private fun balance(left: Node, right: Node): Node {
+            if (left.height > right.height + 1) {
+                left as Branch
+                if (left.left.height >= left.right.height) {
+                    return Branch(left.left, Branch(left.right, right))
+                }
+                val inner = left.right as Branch
+                return Branch(Branch(left.left, inner.left), Branch(inner.right, right))
+            }
+            if (right.height > left.height + 1) {
+                right as Branch
+                if (right.right.height >= right.left.height) {
+                    return Branch(Branch(left, right.left), right.right)
+                }
+                val inner = right.left as Branch
+                return Branch(Branch(left, inner.left), Branch(inner.right, right.right))
+            }
+            return Branch(left, right)
+        }
+    }
+
+    override val size get() = root?.size ?: 0
+
+    // the number of branches from the root to the deepest chunk, -1 if empty
+    internal val height get() = root?.height ?: -1
+
+    override fun get(index: Int): E {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        var node = root!!
+        var i = index
+        while (node is Branch) {
+            if (i < node.left.size) {
+                node = node.left
+            } else {
+                i -= node.left.size
+                node = node.right
+            }
+        }
+        @Suppress("UNCHECKED_CAST")
+        return (node as Leaf).elements[i] as E
+    }
+
+    fun setAt(index: Int, element: @UnsafeVariance E): PersistentList<E> {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        return PersistentList(set(root!!, index, element))
+    }
+
+    fun insertAllAt(index: Int, elements: List<@UnsafeVariance E>): PersistentList<E> {
+        if (index < 0 || index > size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        val inserted = copyOf(elements).root
+        return PersistentList(concat(concat(take(root, index), inserted), drop(root, index)))
+    }
+
+    fun removeRange(index: Int, n: Int): PersistentList<E> {
+        if (index < 0 || n < 0 || index + n > size) throw IndexOutOfBoundsException("range: $index+$n, size: $size")
+        return PersistentList(concat(take(root, index), drop(root, index + n)))
+    }
+
+    fun concat(other: List<@UnsafeVariance E>): PersistentList<E> {
+        return PersistentList(concat(root, copyOf(other).root))
+    }
+
+    override fun subList(fromIndex: Int, toIndex: Int): PersistentList<E> {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw IndexOutOfBoundsException("fromIndex: $fromIndex, toIndex: $toIndex, size: $size")
+        }
+        return PersistentList(take(drop(root, fromIndex), toIndex - fromIndex))
+    }
+
+    override fun iterator(): Iterator<E> = NodeIterator(root)
+
+    override fun hashCode() = root?.let { it.power + it.hash } ?: 1
+
+    override fun equals(other: Any?): Boolean {
+        if (other === this) return true
+        if (other is PersistentList<*> && (other.size != size || other.hashCode() != hashCode())) return false
+        return super.equals(other)
+    }
+
+    private sealed class Node {
+        abstract val size: Int
+        abstract val height: Int
+
+        // sum of the element hashes times 31^(number of elements following them)
+        abstract val hash: Int
+
+        // 31^size
+        abstract val power: Int
+    }
+
+    private class Leaf(val elements: Array<Any?>) : Node() {
+        override val size get() = elements.size
+        override val height get() = 0
+        override val hash: Int
+        override val power: Int
+
+        init {
+            var hash = 0
+            var power = 1
+            for (element in elements) {
+                hash = 31 * hash + element.hashCode()
+                power *= 31
+            }
+            this.hash = hash
+            this.power = power
+        }
+    }
+
+    private class Branch(val left: Node, val right: Node) : Node() {
+        override val size = left.size + right.size
+        override val height = maxOf(left.height, right.height) + 1
+        override val hash = left.hash * right.power + right.hash
+        override val power = left.power * right.power
+    }
+
+    private class NodeIterator<E>(root: Node?) : Iterator<E> {
+        // the right subtrees still to visit, innermost last
+        private val pending = ArrayList<Node>()
+        private var leaf: Leaf? = null
+        private var index = 0
+
+        init {
+            root?.let { descend(it) }
+        }
+
+        override fun hasNext() = leaf != null
+
+        override fun next(): E {
+            val current = leaf ?: throw NoSuchElementException()
+            @Suppress("UNCHECKED_CAST")
+            val element = current.elements[index++] as E
+            if (index == current.size) {
+                leaf = null
+                index = 0
+                if (pending.isNotEmpty()) descend(pending.removeAt(pending.lastIndex))
+            }
+            return element
+        }
+
+        private fun descend(start: Node) {
+            var node = start
+            while (node is Branch) {
+                pending.add(node.right)
+                node = node.left
+            }
+            leaf = node as Leaf
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package de.sirywell.handlehints.type
+
+/**
+ * An immutable mapping of ascending indexes to values, e.g., the known parameter types of an incomplete list.
+ *
+ * Indexes and values are stored in parallel arrays, so lookups are binary searches over primitive ints,
+ * and shifting indexes, as needed when adding or removing elements in front of them, copies the arrays once.
+ */
+class SparseList<out T> private constructor(private val keys: IntArray, private val elements: Array<Any?>) {
+    companion object {
+        private val EMPTY = SparseList<Nothing>(IntArray(0), arrayOf())
+
+        fun <T> empty(): SparseList<T> = EMPTY
+
+        fun <T> of(index: Int, value: T) = SparseList<T>(intArrayOf(index), arrayOf<Any?>(value))
+
+        /**
+         * Returns the values of [list] at their respective indexes.
+         */
+        fun <T> of(list: List<T>) = SparseList<T>(IntArray(list.size) { it }, list.toTypedArray<Any?>())
+    }
+
+    /** The number of known values */
+    val size get() = keys.size
+
+    fun isEmpty() = keys.isEmpty()
+
+    fun keyAt(position: Int) = keys[position]
+
+    @Suppress("UNCHECKED_CAST")
+    fun valueAt(position: Int) = elements[position] as T
+
+    /**
+     * Returns the value at [index], or `null` if it is not known.
+     */
+    operator fun get(index: Int): T? {
+        val position = keys.binarySearch(index)
+        return if (position >= 0) valueAt(position) else null
+    }
+
+    /**
+     * Returns the greatest known index.
+     * @throws NoSuchElementException if no value is known
+     */
+    fun lastKey(): Int {
+        if (isEmpty()) throw NoSuchElementException()
+        return keys[keys.size - 1]
+    }
+
+    inline fun forEach(action: (index: Int, value: T) -> Unit) {
+        for (position in 0..<size) {
+            action(keyAt(position), valueAt(position))
+        }
+    }
+
+    fun <R> mapValues(transform: (T) -> R) = SparseList<R>(keys, Array<Any?>(size) { transform(valueAt(it)) })
+
+    /**
+     * Returns the values with an index in `[from, to)`.
+     */
+    fun slice(from: Int, to: Int): SparseList<T> {
+        val start = insertionPoint(from)
+        val end = maxOf(start, insertionPoint(to))
+        if (start == 0 && end == size) return this
+        return SparseList(keys.copyOfRange(start, end), elements.copyOfRange(start, end))
+    }
+
+    /**
+     * Moves the values with an index of at least [from] by [delta].
+     */
+    fun shift(from: Int, delta: Int): SparseList<T> {
+        if (delta == 0) return this
+        val start = insertionPoint(from)
+        if (start == size) return this
+        val shifted = keys.copyOf()
+        for (position in start..<size) {
+            shifted[position] += delta
+        }
+        return SparseList(shifted, elements)
+    }
+
+    /**
+     * Removes the values with an index in `[from, from + n)` and moves the values behind them by `-n`.
+     */
+    fun removeRange(from: Int, n: Int): SparseList<T> {
+        val start = insertionPoint(from)
+        val end = maxOf(start, insertionPoint(from + n))
+        val newKeys = IntArray(size - (end - start))
+        keys.copyInto(newKeys, 0, 0, start)
+        for (position in end..<size) {
+            newKeys[position - end + start] = keys[position] - n
+        }
+        val newValues = arrayOfNulls<Any?>(newKeys.size)
+        elements.copyInto(newValues, 0, 0, start)
+        elements.copyInto(newValues, start, end, size)
+        return SparseList(newKeys, newValues)
+    }
+
+    /**
+     * Inserts [list] densely at [index] and moves the values from [index] on behind the inserted elements.
+     */
+    fun insertAll(index: Int, list: List<@UnsafeVariance T>): SparseList<T> {
+        val start = insertionPoint(index)
+        val newKeys = IntArray(size + list.size)
+        val newValues = arrayOfNulls<Any?>(newKeys.size)
+        keys.copyInto(newKeys, 0, 0, start)
+        elements.copyInto(newValues, 0, 0, start)
+        for (i in list.indices) {
+            newKeys[start + i] = index + i
+            newValues[start + i] = list[i]
+        }
+        for (position in start..<size) {
+            newKeys[position + list.size] = keys[position] + list.size
+        }
+        elements.copyInto(newValues, start + list.size, start, size)
+        return SparseList(newKeys, newValues)
+    }
+
+    /**
+     * Returns a copy with [value] at [index].
+     */
+    fun setAt(index: Int, value: @UnsafeVariance T): SparseList<T> {
+        val position = keys.binarySearch(index)
+        if (position >= 0) {
+            return SparseList(keys, elements.copyOf().also { it[position] = value })
+        }
+        val start = -(position + 1)
+        val newKeys = IntArray(size + 1)
+        val newValues = arrayOfNulls<Any?>(newKeys.size)
+        keys.copyInto(newKeys, 0, 0, start)
+        keys.copyInto(newKeys, start + 1, start, size)
+        elements.copyInto(newValues, 0, 0, start)
+        elements.copyInto(newValues, start + 1, start, size)
+        newKeys[start] = index
+        newValues[start] = value
+        return SparseList(newKeys, newValues)
+    }
+
+    /**
+     * Returns the values of both lists. If both know a value at the same index, [combine] decides the result.
+     */
+    fun union(
+        other: SparseList<@UnsafeVariance T>,
+        combine: (T, T) -> @UnsafeVariance T = { _, second -> second }
+    ): SparseList<T> {
+        if (other.isEmpty()) return this
+        if (isEmpty()) return other
+        val newKeys = IntArray(size + other.size)
+        val newValues = arrayOfNulls<Any?>(newKeys.size)
+        var i = 0
+        var j = 0
+        var count = 0
+        while (i < size || j < other.size) {
+            val key = when {
+                j == other.size -> keys[i]
+                i == size -> other.keys[j]
+                else -> minOf(keys[i], other.keys[j])
+            }
+            val mine = i < size && keys[i] == key
+            val theirs = j < other.size && other.keys[j] == key
+            newKeys[count] = key
+            newValues[count++] = when {
+                mine && theirs -> combine(valueAt(i++), other.valueAt(j++))
+                mine -> valueAt(i++)
+                else -> other.valueAt(j++)
+            }
+        }
+        return SparseList(newKeys.copyOf(count), newValues.copyOf(count))
+    }
+
+    // the position of the first key that is at least index
+    private fun insertionPoint(index: Int): Int {
+        val position = keys.binarySearch(index)
+        return if (position >= 0) position else -(position + 1)
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (other === this) return true
+        if (other !is SparseList<*>) return false
+        return keys.contentEquals(other.keys) && elements.contentEquals(other.elements)
+    }
+
+    override fun hashCode() = 31 * keys.contentHashCode() + elements.contentHashCode()
+
+    override fun toString() = (0..<size).joinToString(prefix = "{", postfix = "}") { "${keys[it]}=${elements[it]}" }
+}
+
+fun <E> List<E>.toSparseList() = SparseList.of(this)
@@ -1,15 +1,19 @@
 package de.sirywell.handlehints.type
 
+import com.intellij.psi.JavaPsiFacade
 import com.intellij.psi.PsiArrayType
+import com.intellij.psi.PsiClassType
 import com.intellij.psi.PsiManager
 import com.intellij.psi.PsiPrimitiveType
 import com.intellij.psi.PsiType
+import com.intellij.psi.PsiTypeParameter
 import com.intellij.psi.PsiTypes
+import com.intellij.psi.PsiWildcardType
+import com.intellij.psi.TypeAnnotationProvider
 import com.intellij.psi.search.GlobalSearchScope
 import de.sirywell.handlehints.TriState
 import de.sirywell.handlehints.objectType
 import de.sirywell.handlehints.toTriState
-import java.util.*
 
 @TypeInfo(TopType::class)
 sealed interface Type : TypeLatticeElement<Type> {
@@ -45,39 +49,125 @@ data object TopType : Type, TopTypeLatticeElement<Type> {
     override fun componentType() = this
 }
 
-@JvmRecord
-data class ExactType(val psiType: PsiType) : Type {
+@ConsistentCopyVisibility
+data class ExactType private constructor(val psiType: PsiType) : InternedElement<Type>(), Type {
 
     companion object {
+        /**
+         * Returns the interned type for [psiType].
+         *
+         * Interned types are shared by all code blocks, so they must not keep the PSI of the block they were created in.
+         * Primitive types are stored without their annotations, and types that only refer to classes by their
+         * qualified name are rebuilt from these names in the resolve scope of [psiType], independent of any file.
+         * The resolve scope is part of the key, as the same name can refer to different classes in different modules.
+         * Only other types, e.g., of type parameters or local classes, keep the given PSI type.
+         */
+        operator fun invoke(psiType: PsiType): ExactType {
+            if (psiType.deepComponentType is PsiPrimitiveType) {
+                val type = withoutAnnotations(psiType)
+                return TypeInterner.intern(ExactType::class.java, type) { ExactType(type) }
+            }
+            val scope = psiType.resolveScope
+            val key = detachedKey(psiType)
+            if (scope == null || key == null) {
+                return TypeInterner.intern(ExactType::class.java, psiType) { ExactType(psiType) }
+            }
+            return TypeInterner.intern(ExactType::class.java, key, scope) { ExactType(detach(psiType, scope)) }
+        }
+
+        private fun withoutAnnotations(psiType: PsiType): PsiType {
+            if (psiType is PsiArrayType) {
+                return withoutAnnotations(psiType.componentType).createArrayType()
+            }
+            return psiType.annotate(TypeAnnotationProvider.EMPTY)
+        }
+
+        // a key that identifies the type by the qualified names of its classes,
+        // or null if it refers to classes that can't be found by their qualified name
+        private fun detachedKey(psiType: PsiType): Any? {
+            return when (psiType) {
+                is PsiPrimitiveType -> psiType.name
+                is PsiArrayType -> detachedKey(psiType.componentType)?.let { listOf("[]", it) }
+                is PsiWildcardType -> {
+                    val bound = psiType.bound ?: return "?"
+                    detachedKey(bound)?.let { listOf(if (psiType.isExtends) "extends" else "super", it) }
+                }
+
+                is PsiClassType -> {
+                    val name = qualifiedName(psiType) ?: return null
+                    val parameters = psiType.parameters
+                    if (parameters.isEmpty()) return name
+                    val key = ArrayList<Any>(parameters.size + 1)
+                    key.add(name)
+                    for (parameter in parameters) {
+                        key.add(detachedKey(parameter) ?: return null)
+                    }
+                    key
+                }
+
+                else -> null
+            }
+        }
+
+        // rebuilds a type that has a detached key from the qualified names of its classes
+        private fun detach(psiType: PsiType, scope: GlobalSearchScope): PsiType {
+            return when (psiType) {
+                is PsiPrimitiveType -> psiType.annotate(TypeAnnotationProvider.EMPTY)
+                is PsiArrayType -> detach(psiType.componentType, scope).createArrayType()
+                is PsiWildcardType -> {
+                    val manager = psiType.manager
+                    val bound = psiType.bound ?: return PsiWildcardType.createUnbounded(manager)
+                    if (psiType.isExtends) PsiWildcardType.createExtends(manager, detach(bound, scope))
+                    else PsiWildcardType.createSuper(manager, detach(bound, scope))
+                }
+
+                is PsiClassType -> {
+                    val name = qualifiedName(psiType)!!
+                    val project = psiType.resolve()!!.project
+                    val factory = JavaPsiFacade.getElementFactory(project)
+                    if (psiType.parameterCount == 0) return factory.createTypeByFQClassName(name, scope)
+                    val psiClass = JavaPsiFacade.getInstance(project).findClass(name, scope)
+                        ?: return factory.createTypeByFQClassName(name, scope)
+                    factory.createType(psiClass, *psiType.parameters.map { detach(it, scope) }.toTypedArray())
+                }
+
+                else -> throw IllegalArgumentException("type without a detached key: $psiType")
+            }
+        }
+
+        private fun qualifiedName(psiType: PsiClassType): String? {
+            val psiClass = psiType.resolve() ?: return null
+            if (psiClass is PsiTypeParameter) return null
+            return psiClass.qualifiedName
+        }
+
+        private val DIFFERENT = JoinResult<Type>(TopType, TriState.NO)
+
         @JvmStatic
-        val voidType = ExactType(PsiTypes.voidType())
+        val voidType = invoke(PsiTypes.voidType())
         @JvmStatic
-        val intType = ExactType(PsiTypes.intType())
+        val intType = invoke(PsiTypes.intType())
         @JvmStatic
-        val booleanType = ExactType(PsiTypes.booleanType())
+        val booleanType = invoke(PsiTypes.booleanType())
         @JvmStatic
-        val byteType = ExactType(PsiTypes.byteType())
+        val byteType = invoke(PsiTypes.byteType())
         @JvmStatic
-        val charType = ExactType(PsiTypes.charType())
+        val charType = invoke(PsiTypes.charType())
         @JvmStatic
-        val doubleType = ExactType(PsiTypes.doubleType())
+        val doubleType = invoke(PsiTypes.doubleType())
         @JvmStatic
-        val floatType = ExactType(PsiTypes.floatType())
+        val floatType = invoke(PsiTypes.floatType())
         @JvmStatic
-        val longType = ExactType(PsiTypes.longType())
+        val longType = invoke(PsiTypes.longType())
         @JvmStatic
-        val shortType = ExactType(PsiTypes.shortType())
+        val shortType = invoke(PsiTypes.shortType())
     }
 
-    override fun joinIdentical(other: Type): Pair<Type, TriState> {
+    override fun joinIdentical(other: Type): JoinResult<Type> {
         return when (other) {
-            is ExactType -> if (other.psiType == psiType) {
-                this to TriState.YES
-            } else {
-                TopType to TriState.NO
-            }
-            is BotType -> this to TriState.UNKNOWN
-            is TopType -> other to TriState.UNKNOWN
+            is ExactType -> if (other === this) identicalJoin() else DIFFERENT
+            is BotType -> JoinResult(this, TriState.UNKNOWN)
+            is TopType -> JoinResult(other, TriState.UNKNOWN)
         }
     }
 
@@ -86,7 +176,7 @@ data class ExactType(val psiType: PsiType) : Type {
     override fun erase(manager: PsiManager, scope: GlobalSearchScope): Type {
         if (psiType is PsiPrimitiveType) return this
         val objectType = objectType(manager, scope)
-        return ExactType(objectType)
+        return ExactType.invoke(objectType)
     }
 
     override fun match(psiType: PsiType) = (this.psiType == psiType).toTriState()
@@ -97,7 +187,7 @@ data class ExactType(val psiType: PsiType) : Type {
 
     override fun componentType(): Type {
         if (psiType is PsiArrayType) {
-            return ExactType(psiType.componentType)
+            return ExactType.invoke(psiType.componentType)
         }
         return TopType
     }
@@ -115,7 +205,7 @@ data object TopTypeList : TopTypeLatticeElementList<Type>() {
     override fun bot() = BotType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<Type>) = CompleteTypeList(list)
-    override fun incomplete(list: SortedMap<Int, Type>) = IncompleteTypeList(list)
+    override fun incomplete(list: SparseList<Type>) = IncompleteTypeList(list)
 
 }
 data object BotTypeList : BotTypeLatticeElementList<Type>() {
@@ -125,25 +215,41 @@ data object BotTypeList : BotTypeLatticeElementList<Type>() {
     override fun bot() = BotType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<Type>) = CompleteTypeList(list)
-    override fun incomplete(list: SortedMap<Int, Type>) = IncompleteTypeList(list)
+    override fun incomplete(list: SparseList<Type>) = IncompleteTypeList(list)
 }
 
-class CompleteTypeList(list: List<Type>) : CompleteTypeLatticeElementList<Type>(list) {
+class CompleteTypeList private constructor(list: PersistentList<Type>) : CompleteTypeLatticeElementList<Type>(list) {
+    companion object {
+        operator fun invoke(list: List<Type>): CompleteTypeList {
+            val copy = PersistentList.copyOf(list)
+            return TypeInterner.intern(CompleteTypeList::class.java, copy) { CompleteTypeList(copy) }
+        }
+    }
+
     override fun topList() = TopTypeList
     override fun botList() = BotTypeList
     override fun top() = TopType
     override fun bot() = BotType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
-    override fun complete(list: List<Type>) = CompleteTypeList(list)
-    override fun incomplete(list: SortedMap<Int, Type>) = IncompleteTypeList(list)
+    override fun complete(list: List<Type>) = CompleteTypeList.invoke(list)
+    override fun incomplete(list: SparseList<Type>) = IncompleteTypeList(list)
 }
 
-class IncompleteTypeList(knowParameterTypes: SortedMap<Int, Type>) : IncompleteTypeLatticeElementList<Type>(knowParameterTypes) {
+class IncompleteTypeList private constructor(knowParameterTypes: SparseList<Type>) :
+    IncompleteTypeLatticeElementList<Type>(knowParameterTypes) {
+    companion object {
+        operator fun invoke(knowParameterTypes: SparseList<Type>): IncompleteTypeList {
+            return TypeInterner.intern(IncompleteTypeList::class.java, knowParameterTypes) {
+                IncompleteTypeList(knowParameterTypes)
+            }
+        }
+    }
+
     override fun topList() = TopTypeList
     override fun botList() = BotTypeList
     override fun top() = TopType
     override fun bot() = BotType
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
     override fun complete(list: List<Type>) = CompleteTypeList(list)
-    override fun incomplete(list: SortedMap<Int, Type>) = IncompleteTypeList(list)
+    override fun incomplete(list: SparseList<Type>) = IncompleteTypeList.invoke(list)
 }
\ No newline at end of file
@@ -6,19 +6,48 @@ import de.sirywell.handlehints.*
 import kotlin.reflect.KClass
 
 sealed interface TypeLatticeElement<LE: TypeLatticeElement<LE>> {
-    fun join(other: LE) = joinIdentical(other).first
-    fun joinIdentical(other: LE): Pair<LE, TriState>
+    fun join(other: LE) = joinIdentical(other).type
+    fun joinIdentical(other: LE): JoinResult<LE>
     fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C): R
 }
 
+/**
+ * The result of [TypeLatticeElement.joinIdentical]: the joined element and whether both operands are identical.
+ *
+ * Results that don't know whether the operands are identical are represented by the joined element itself.
+ * These are the most common results, as every join with top or bottom is one of them, and they don't allocate.
+ * Other results are allocated once per operand pair and analysis pass and then shared via the [JoinCache].
+ */
+@JvmInline
+value class JoinResult<out LE> private constructor(private val packed: Any) {
+    companion object {
+        operator fun <LE : Any> invoke(type: LE, identical: TriState): JoinResult<LE> {
+            return JoinResult(if (identical == TriState.UNKNOWN) type else KnownIdentity(type, identical))
+        }
+    }
+
+    val type: LE
+        @Suppress("UNCHECKED_CAST")
+        get() = (if (packed is KnownIdentity) packed.type else packed) as LE
+
+    val identical: TriState
+        get() = if (packed is KnownIdentity) packed.identical else TriState.UNKNOWN
+
+    operator fun component1() = type
+
+    operator fun component2() = identical
+
+    private class KnownIdentity(val type: Any, val identical: TriState)
+}
+
 sealed interface BotTypeLatticeElement<LE: TypeLatticeElement<LE>> : TypeLatticeElement<LE> {
-    override fun joinIdentical(other: LE): Pair<LE, TriState> {
-        return other to TriState.UNKNOWN
+    override fun joinIdentical(other: LE): JoinResult<LE> {
+        return JoinResult(other, TriState.UNKNOWN)
     }
 }
 sealed interface TopTypeLatticeElement<LE: TypeLatticeElement<LE>> : TypeLatticeElement<LE> {
-    override fun joinIdentical(other: LE): Pair<LE, TriState> {
-        return self() to TriState.UNKNOWN
+    override fun joinIdentical(other: LE): JoinResult<LE> {
+        return JoinResult(self(), TriState.UNKNOWN)
     }
 
     fun self(): LE
@@ -2,8 +2,6 @@ package de.sirywell.handlehints.type
 
 import de.sirywell.handlehints.TriState
 import de.sirywell.handlehints.toTriState
-import java.util.*
-import java.util.stream.Collectors
 
 sealed interface TypeLatticeElementList<T : TypeLatticeElement<T>> : TypeLatticeElement<TypeLatticeElementList<T>> {
     /**
@@ -54,23 +52,25 @@ sealed interface TypeLatticeElementList<T : TypeLatticeElement<T>> : TypeLattice
     fun top(): T
     fun bot(): T
     fun complete(list: List<T>): CompleteTypeLatticeElementList<T>
-    fun incomplete(list: SortedMap<Int, T>): IncompleteTypeLatticeElementList<T>
+    fun incomplete(list: SparseList<T>): IncompleteTypeLatticeElementList<T>
     fun lastOrNull(): T?
 
 }
 
 abstract class BotTypeLatticeElementList<T : TypeLatticeElement<T>> : TypeLatticeElementList<T> {
     override fun parameterType(index: Int) = bot()
-    override fun joinIdentical(other: TypeLatticeElementList<T>) = other to TriState.UNKNOWN
+    override fun joinIdentical(other: TypeLatticeElementList<T>): JoinResult<TypeLatticeElementList<T>> {
+        return JoinResult(other, TriState.UNKNOWN)
+    }
     override fun dropFirst(n: Int) = this
     override fun removeAt(index: Int, n: Int) = this
     override fun addAllAt(index: Int, typeLatticeElementList: TypeLatticeElementList<T>): TypeLatticeElementList<T> {
-        return incomplete(typeLatticeElementList.toMap().mapKeys { it.key + index }.toSortedMap())
+        return incomplete(typeLatticeElementList.toSparseList().shift(0, index))
     }
 
     override fun setAt(index: Int, type: T): TypeLatticeElementList<T> {
         if (index < 0) return topList()
-        return incomplete(sortedMapOf(index to type))
+        return incomplete(SparseList.of(index, type))
     }
 
     override fun sizeMatches(predicate: (Int) -> Boolean) = TriState.UNKNOWN
@@ -90,14 +90,16 @@ abstract class BotTypeLatticeElementList<T : TypeLatticeElement<T>> : TypeLattic
 
 abstract class TopTypeLatticeElementList<T : TypeLatticeElement<T>> : TypeLatticeElementList<T> {
     override fun parameterType(index: Int) = top()
-    override fun joinIdentical(other: TypeLatticeElementList<T>) = this to TriState.UNKNOWN
+    override fun joinIdentical(other: TypeLatticeElementList<T>): JoinResult<TypeLatticeElementList<T>> {
+        return JoinResult(this, TriState.UNKNOWN)
+    }
 
     override fun dropFirst(n: Int) = this
     override fun removeAt(index: Int, n: Int) = this
     override fun addAllAt(index: Int, typeLatticeElementList: TypeLatticeElementList<T>) =
-        incomplete(typeLatticeElementList.toMap().mapKeys { it.key + index }.toSortedMap())
+        incomplete(typeLatticeElementList.toSparseList().shift(0, index))
 
-    override fun setAt(index: Int, type: T) = incomplete(sortedMapOf(index to type))
+    override fun setAt(index: Int, type: T) = incomplete(SparseList.of(index, type))
 
     override fun sizeMatches(predicate: (Int) -> Boolean) = TriState.UNKNOWN
     override fun compareSize(value: Int): PartialOrder {
@@ -114,39 +116,43 @@ abstract class TopTypeLatticeElementList<T : TypeLatticeElement<T>> : TypeLattic
     override fun lastOrNull() = null
 }
 
-abstract class CompleteTypeLatticeElementList<T : TypeLatticeElement<T>>(val typeList: List<T>) :
-    TypeLatticeElementList<T> {
+abstract class CompleteTypeLatticeElementList<T : TypeLatticeElement<T>>(val typeList: PersistentList<T>) :
+    InternedElement<TypeLatticeElementList<T>>(), TypeLatticeElementList<T> {
     val size get() = typeList.size
     override fun parameterType(index: Int): T {
         return typeList.getOrElse(index) { top() }
     }
 
-    override fun joinIdentical(other: TypeLatticeElementList<T>): Pair<TypeLatticeElementList<T>, TriState> {
+    override fun joinIdentical(other: TypeLatticeElementList<T>): JoinResult<TypeLatticeElementList<T>> {
+        return joinCached(other) { joinComponents(other) }
+    }
+
+    private fun joinComponents(other: TypeLatticeElementList<T>): JoinResult<TypeLatticeElementList<T>> {
         return when (other) {
-            is BotTypeLatticeElementList -> this to TriState.UNKNOWN
-            is TopTypeLatticeElementList -> topList() to TriState.UNKNOWN
+            is BotTypeLatticeElementList -> JoinResult(this, TriState.UNKNOWN)
+            is TopTypeLatticeElementList -> JoinResult(topList(), TriState.UNKNOWN)
             is CompleteTypeLatticeElementList -> {
                 if (size != other.size) {
-                    topList() to TriState.NO
+                    JoinResult(topList(), TriState.NO)
                 } else {
                     val params = typeList.zip(other.typeList).map { (a, b) -> a.joinIdentical(b) }
                     val identical = paramsAreIdentical(params)
-                    complete(params.map { it.first }) to identical
+                    JoinResult(complete(params.map { it.type }), identical)
                 }
             }
 
             is IncompleteTypeLatticeElementList -> {
                 if (size < other.knownTypes.lastKey()) {
                     // this list is definitely smaller than the other list, therefore incompatible
-                    topList() to TriState.NO
+                    JoinResult(topList(), TriState.NO)
                 } else {
                     // join the known types, keep the rest (others would be BotType anyway)
-                    val params = typeList.map { it to TriState.UNKNOWN }.toMutableList()
-                    other.knownTypes.forEach { (index, type) ->
+                    val params = typeList.map { JoinResult(it, TriState.UNKNOWN) }.toMutableList()
+                    other.knownTypes.forEach { index, type ->
                         params[index] = typeList[index].joinIdentical(type)
                     }
                     val identical = paramsAreIdentical(params)
-                    complete(params.map { it.first }) to identical
+                    JoinResult(complete(params.map { it.type }), identical)
                 }
             }
         }
@@ -154,40 +160,32 @@ abstract class CompleteTypeLatticeElementList<T : TypeLatticeElement<T>>(val typ
 
     override fun dropFirst(n: Int): TypeLatticeElementList<T> {
         if (typeList.size < n) return topList()
-        return complete(typeList.drop(n))
+        return complete(typeList.subList(n, size))
     }
 
     override fun removeAt(index: Int, n: Int): TypeLatticeElementList<T> {
         if (index < 0 || index + n - 1 > size) return topList()
-        val list = typeList.toMutableList()
-        list.subList(index, index + n).clear()
-        return complete(list)
+        return complete(typeList.removeRange(index, n))
     }
 
     override fun addAllAt(index: Int, typeLatticeElementList: TypeLatticeElementList<T>): TypeLatticeElementList<T> {
         if (index > size || index < 0) return topList()
         return when (typeLatticeElementList) {
-            is BotTypeLatticeElementList<T> -> incomplete(typeList.subList(0, index).toIndexedMap())
+            is BotTypeLatticeElementList<T> -> incomplete(typeList.subList(0, index).toSparseList())
             is TopTypeLatticeElementList<T> -> topList()
-            is CompleteTypeLatticeElementList<T> -> {
-                val list = typeList.toMutableList()
-                list.addAll(index, typeLatticeElementList.typeList)
-                complete(list)
-            }
+            is CompleteTypeLatticeElementList<T> ->
+                complete(typeList.insertAllAt(index, typeLatticeElementList.typeList))
 
             is IncompleteTypeLatticeElementList<T> -> {
-                val map = typeList.toIndexedMap().subMap(0, index)
-                val append = typeLatticeElementList.knownTypes.mapKeys { it.key + index }
-                incomplete((map + append).toSortedMap())
+                val append = typeLatticeElementList.knownTypes.shift(0, index)
+                incomplete(typeList.subList(0, index).toSparseList().union(append))
             }
         }
     }
 
     override fun setAt(index: Int, type: T): TypeLatticeElementList<T> {
         if (index < 0 || index > typeList.size) return topList()
-        val list = typeList.toMutableList()
-        list[index] = type
-        return complete(list)
+        return complete(typeList.setAt(index, type))
     }
 
     override fun sizeMatches(predicate: (Int) -> Boolean): TriState {
@@ -207,63 +205,54 @@ abstract class CompleteTypeLatticeElementList<T : TypeLatticeElement<T>>(val typ
     }
 }
 
-abstract class IncompleteTypeLatticeElementList<T : TypeLatticeElement<T>>(val knownTypes: SortedMap<Int, T>) :
-    TypeLatticeElementList<T> {
+abstract class IncompleteTypeLatticeElementList<T : TypeLatticeElement<T>>(val knownTypes: SparseList<T>) :
+    InternedElement<TypeLatticeElementList<T>>(), TypeLatticeElementList<T> {
     override fun parameterType(index: Int): T {
         return knownTypes[index] ?: top()
     }
 
-    override fun joinIdentical(other: TypeLatticeElementList<T>): Pair<TypeLatticeElementList<T>, TriState> {
+    override fun joinIdentical(other: TypeLatticeElementList<T>): JoinResult<TypeLatticeElementList<T>> {
+        return joinCached(other) { joinComponents(other) }
+    }
+
+    private fun joinComponents(other: TypeLatticeElementList<T>): JoinResult<TypeLatticeElementList<T>> {
         return when (other) {
-            is BotTypeLatticeElementList -> this to TriState.UNKNOWN
-            is TopTypeLatticeElementList -> topList() to TriState.UNKNOWN
+            is BotTypeLatticeElementList -> JoinResult(this, TriState.UNKNOWN)
+            is TopTypeLatticeElementList -> JoinResult(topList(), TriState.UNKNOWN)
             is CompleteTypeLatticeElementList -> other.joinIdentical(this) // do not reimplement code here for no reason
             is IncompleteTypeLatticeElementList -> {
-                val new = (knownTypes.entries + (other.knownTypes.entries))
-                    .stream()
-                    .collect(
-                        Collectors.toMap(
-                            { it.key }, { it.value to TriState.UNKNOWN },
-                            { (type, _), (o, _) -> type.joinIdentical(o) })
-                    )
-                val identical = if (paramsAreIdentical(new.values) == TriState.NO) {
-                    TriState.NO
-                } else {
-                    TriState.YES
+                // types known by only one of the lists can't make them different
+                var identical = TriState.YES
+                val new = knownTypes.union(other.knownTypes) { type, o ->
+                    val (joined, identicalType) = type.joinIdentical(o)
+                    if (identicalType == TriState.NO) {
+                        identical = TriState.NO
+                    }
+                    joined
                 }
-                incomplete(new.mapValues { it.value.first }.toSortedMap()) to identical
+                JoinResult(incomplete(new), identical)
             }
         }
     }
 
     override fun dropFirst(n: Int): TypeLatticeElementList<T> {
-        val mutableMap = knownTypes.toMutableMap()
-        (0..<n).forEach { mutableMap.remove(it) }
-        return incomplete(mutableMap.mapKeys { it.key - n }.toSortedMap())
+        return incomplete(knownTypes.removeRange(0, n))
     }
 
     override fun removeAt(index: Int, n: Int): TypeLatticeElementList<T> {
-        val mutableMap = knownTypes.toMutableMap()
-        (0..<n).forEach { mutableMap.remove(index + it) }
-        return incomplete(mutableMap.mapKeys { if (it.key >= index + n) it.key - n else it.key }.toSortedMap())
+        return incomplete(knownTypes.removeRange(index, n))
     }
 
     override fun addAllAt(index: Int, typeLatticeElementList: TypeLatticeElementList<T>): TypeLatticeElementList<T> {
         return when (typeLatticeElementList) {
-            is BotTypeLatticeElementList -> incomplete(knownTypes.subMap(0, index))
+            is BotTypeLatticeElementList -> incomplete(knownTypes.slice(0, index))
             is TopTypeLatticeElementList -> topList()
-            is CompleteTypeLatticeElementList -> {
-                val parameterTypes = typeLatticeElementList.typeList
-                val moved = parameterTypes.toIndexedMap().mapKeys { it.key + index }
-                val shifted =
-                    knownTypes.mapKeys { if (it.key >= index) it.key + parameterTypes.size else it.key }
-                incomplete((moved + shifted).toSortedMap())
-            }
+            is CompleteTypeLatticeElementList ->
+                incomplete(knownTypes.insertAll(index, typeLatticeElementList.typeList))
 
             is IncompleteTypeLatticeElementList -> {
-                val map = knownTypes.subMap(0, index)
-                val append = typeLatticeElementList.knownTypes.mapKeys { it.key + index }
-                incomplete((map + append).toSortedMap())
+                val append = typeLatticeElementList.knownTypes.shift(0, index)
+                incomplete(knownTypes.slice(0, index).union(append))
             }
         }
 
@@ -271,9 +260,7 @@ abstract class IncompleteTypeLatticeElementList<T : TypeLatticeElement<T>>(val k
 
     override fun setAt(index: Int, type: T): TypeLatticeElementList<T> {
         if (index < 0) return topList()
-        val map = knownTypes.toMutableMap()
-        map[index] = type
-        return incomplete(map.toSortedMap())
+        return incomplete(knownTypes.setAt(index, type))
     }
 
     override fun sizeMatches(predicate: (Int) -> Boolean) = TriState.UNKNOWN
@@ -285,33 +272,30 @@ abstract class IncompleteTypeLatticeElementList<T : TypeLatticeElement<T>>(val k
 
     override fun sizeOrNull() = null
 
-    override fun anyKnownMatches(predicate: (T) -> Boolean) = knownTypes.values.any(predicate)
+    override fun anyKnownMatches(predicate: (T) -> Boolean) =
+        (0..<knownTypes.size).any { predicate(knownTypes.valueAt(it)) }
 
     override fun partialList(): List<T> {
-        return (0..knownTypes.lastKey()).map { knownTypes.getOrDefault(it, top()) }
+        return (0..knownTypes.lastKey()).map { knownTypes[it] ?: top() }
     }
 
     override fun lastOrNull() = null
 }
 
-private fun <T : TypeLatticeElement<T>> TypeLatticeElementList<T>.toMap(): SortedMap<Int, T> {
+private fun <T : TypeLatticeElement<T>> TypeLatticeElementList<T>.toSparseList(): SparseList<T> {
     return when (this) {
-        is BotTypeLatticeElementList -> emptySortedMap()
-        is TopTypeLatticeElementList -> emptySortedMap()
-        is CompleteTypeLatticeElementList -> typeList.toIndexedMap()
+        is BotTypeLatticeElementList -> SparseList.empty()
+        is TopTypeLatticeElementList -> SparseList.empty()
+        is CompleteTypeLatticeElementList -> typeList.toSparseList()
         is IncompleteTypeLatticeElementList -> knownTypes
     }
 }
 
-private fun <T> paramsAreIdentical(params: Iterable<Pair<T, TriState>>) =
-    if (params.any { it.second == TriState.NO }) {
+private fun <T> paramsAreIdentical(params: Iterable<JoinResult<T>>) =
+    if (params.any { it.identical == TriState.NO }) {
         TriState.NO
-    } else if (params.all { it.second == TriState.YES }) {
+    } else if (params.all { it.identical == TriState.YES }) {
         TriState.YES
     } else {
         TriState.UNKNOWN
     }
-
-
-fun <E> List<E>.toIndexedMap() = this.mapIndexed { index, e -> index to e }.toMap().toSortedMap()
-private fun <K, V> emptySortedMap() = Collections.emptySortedMap<K, V>()
\ No newline at end of file
@@ -29,11 +29,11 @@ enum class KnownInvocationBehavior(val readableName: String) : InvocationBehavio
     INVOKE("invoke"),
     INVOKE_EXACT("invokeExact");
 
-    override fun joinIdentical(other: InvocationBehavior): Pair<InvocationBehavior, TriState> {
+    override fun joinIdentical(other: InvocationBehavior): JoinResult<InvocationBehavior> {
         return when (other) {
-            is BotInvocationBehavior -> this to TriState.UNKNOWN
-            is TopInvocationBehavior -> TopInvocationBehavior to TriState.UNKNOWN
-            else -> if (this == other) this to TriState.YES else TopInvocationBehavior to TriState.NO
+            is BotInvocationBehavior -> JoinResult(this, TriState.UNKNOWN)
+            is TopInvocationBehavior -> JoinResult(TopInvocationBehavior, TriState.UNKNOWN)
+            else -> if (this == other) JoinResult(this, TriState.YES) else JoinResult(TopInvocationBehavior, TriState.NO)
         }
     }
 
@@ -61,26 +61,38 @@ data object TopVarHandleType : VarHandleType, TopTypeLatticeElement<VarHandleTyp
     override val invocationBehavior = TopInvocationBehavior
 }
 
-data class CompleteVarHandleType(
+@ConsistentCopyVisibility
+data class CompleteVarHandleType private constructor(
     override val variableType: Type,
     override val coordinateTypes: TypeList,
     override val invocationBehavior: InvocationBehavior
-) : VarHandleType {
+) : InternedElement<VarHandleType>(), VarHandleType {
+    companion object {
+        operator fun invoke(variableType: Type, coordinateTypes: TypeList, invocationBehavior: InvocationBehavior) =
+            TypeInterner.intern(CompleteVarHandleType::class.java, variableType, coordinateTypes, invocationBehavior) {
+                CompleteVarHandleType(variableType, coordinateTypes, invocationBehavior)
+            }
+    }
+
     override fun withInvokeBehavior(behavior: InvocationBehavior) =
-        CompleteVarHandleType(this.variableType, this.coordinateTypes, behavior)
+        CompleteVarHandleType.invoke(this.variableType, this.coordinateTypes, behavior)
+
+    override fun joinIdentical(other: VarHandleType): JoinResult<VarHandleType> {
+        return joinCached(other) { joinComponents(other) }
+    }
 
-    override fun joinIdentical(other: VarHandleType): Pair<VarHandleType, TriState> {
+    private fun joinComponents(other: VarHandleType): JoinResult<VarHandleType> {
         val (vt, identicalVt) = variableType.joinIdentical(other.variableType)
         val (ct, identicalCt) = coordinateTypes.joinIdentical(other.coordinateTypes)
         val (ib, identicalIb) = invocationBehavior.joinIdentical(other.invocationBehavior)
         val identical = identicalVt.sharpenTowardsNo(identicalCt).sharpenTowardsNo(identicalIb)
         if (vt == TopType && ct == TopTypeList) {
-            return TopVarHandleType to identical
+            return JoinResult(TopVarHandleType, identical)
         }
         if (vt == BotType && ct == BotTypeList) {
-            return BotVarHandleType to identical
+            return JoinResult(BotVarHandleType, identical)
         }
-        return CompleteVarHandleType(vt, ct, ib) to identical
+        return JoinResult(CompleteVarHandleType.invoke(vt, ct, ib), identical)
     }
 
     override fun <C, R> accept(visitor: TypeVisitor<C, R>, context: C) = visitor.visit(this, context)
@@ -0,0 +1,65 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.psi.PsiMethodCallExpression
+import com.intellij.psi.util.PsiTreeUtil
+import de.sirywell.handlehints.MethodHandleBundle
+import de.sirywell.handlehints.TypeData
+import de.sirywell.handlehints.dfa.AnalysisBudget
+import de.sirywell.handlehints.inspection.MethodHandleEditInspection
+import de.sirywell.handlehints.presentation.TypePrinter
+
+class AnalysisBudgetTest : TypeAnalysisTestBase() {
+
+    fun testRoundsTogetherExceedBudget() {
+        // a single round of the loop fits into the budget, but the rounds together don't
+        configureLoop(8)
+        assertFalse(highlightedMessages().contains(truncationMessage()))
+        assertEquals("()int", typeOfCall("MethodHandles.zero"))
+        // the type of the handle at the loop header is widened, but the final round still analyses everything
+        assertNotNull(typeOfCall("MethodHandles.dropArguments"))
+    }
+
+    fun testTruncationInFinalRound() {
+        // not even a single round fits into the budget
+        configureLoop(3)
+        assertTrue(highlightedMessages().contains(truncationMessage()))
+        // the types before the truncation are still known
+        assertEquals("()int", typeOfCall("MethodHandles.zero"))
+    }
+
+    private fun configureLoop(instructions: Int) {
+        Registry.get(AnalysisBudget.Limit.INSTRUCTIONS.registryKey).setValue(instructions, testRootDisposable)
+        myFixture.configureByText(
+            "Loop.java", """
+            import java.lang.invoke.*;
+
+            class Loop {
+                void loop(int n) {
+                    MethodHandle handle = MethodHandles.zero(int.class);
+                    for (int i = 0; i < n; i++) {
+                        handle = MethodHandles.dropArguments(handle, 0, int.class);
+                    }
+                    MethodHandle result = handle;
+                }
+            }
+            """.trimIndent()
+        )
+    }
+
+    private fun highlightedMessages(): List<String?> {
+        myFixture.enableInspections(MethodHandleEditInspection())
+        return myFixture.doHighlighting().map { it.description }
+    }
+
+    private fun truncationMessage() = MethodHandleBundle.message(
+        "problem.general.analysis.truncated",
+        AnalysisBudget.Limit.INSTRUCTIONS.readableName
+    )
+
+    private fun typeOfCall(prefix: String): String? {
+        val call = PsiTreeUtil.findChildrenOfType(myFixture.file, PsiMethodCallExpression::class.java)
+            .single { it.text.startsWith(prefix) }
+        return TypeData.forFile(myFixture.file)[call]?.let { TypePrinter().print(it) }
+    }
+}
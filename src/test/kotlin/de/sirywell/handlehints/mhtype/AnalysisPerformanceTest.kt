@@ -0,0 +1,295 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.openapi.components.ComponentManager
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.PsiMethod
+import com.intellij.psi.PsiStatement
+import com.intellij.psi.controlFlow.AllVariablesControlFlowPolicy
+import com.intellij.psi.controlFlow.ControlFlow
+import com.intellij.psi.controlFlow.ControlFlowFactory
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.util.PsiTreeUtil
+import com.intellij.testFramework.PlatformTestUtil
+import com.intellij.testFramework.UsefulTestCase
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase
+import de.sirywell.handlehints.TypeData
+import de.sirywell.handlehints.dfa.SsaConstruction
+import de.sirywell.handlehints.dfa.SsaConstruction.Holder
+import java.lang.management.ManagementFactory
+import java.lang.ref.Reference
+import java.lang.reflect.Array as ReflectArray
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+import java.util.ArrayDeque
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinWorkerThread
+import java.util.concurrent.TimeUnit
+
+/**
+ * Analyses generated files of increasing size, similar to the output of jextract.
+ *
+ * For each size, the analysis time is asserted relative to the speed of the machine,
+ * and the bytes allocated by the analysis and retained by its result are bounded per generated unit,
+ * i.e., per declaration or statement. The construction of SSA form is measured separately
+ * on the largest generated methods.
+ *
+ * The measured bytes are published like the timings, see [publish].
+ * These tests are excluded from the `test` task and run by the `performanceTest` task, which `check` depends on.
+ */
+class AnalysisPerformanceTest : LightJavaCodeInsightFixtureTestCase() {
+
+    override fun getProjectDescriptor() = JAVA_LATEST_WITH_LATEST_JDK
+
+    fun testManyFinalFields() {
+        for (count in listOf(1_000, 4_000)) {
+            // four fields per count
+            doPerformanceTest("ManyFinalFields$count", count * 4, count * 2) { manyFinalFields(count) }
+        }
+    }
+
+    fun testLongMethodTypeChains() {
+        for (length in listOf(250, 1_000)) {
+            // two statements per length
+            doPerformanceTest("LongMethodTypeChains$length", length * 2, length * 4) { longMethodTypeChain(length) }
+        }
+    }
+
+    fun testDeepStructLayouts() {
+        for (depth in listOf(16, 64)) {
+            // one struct layout per level of each field
+            doPerformanceTest("DeepStructLayouts$depth", depth * 20, depth * 40) { deepStructLayouts(depth, 20) }
+        }
+    }
+
+    fun testLargeSwitchInLoop() {
+        for (cases in listOf(100, 400)) {
+            // two cases per count
+            doPerformanceTest("LargeSwitchInLoop$cases", cases * 2, cases * 20) { largeSwitchInLoop(cases) }
+        }
+    }
+
+    fun testSsaConstruction() {
+        for ((name, source) in listOf("LongMethod" to longMethodTypeChain(1_000), "SwitchInLoop" to largeSwitchInLoop(400))) {
+            val file = myFixture.configureByText("Ssa$name.java", source)
+            val method = PsiTreeUtil.findChildOfType(file, PsiMethod::class.java)!!
+            val controlFlow = ControlFlowFactory.getInstance(project)
+                .getControlFlow(method.body!!, AllVariablesControlFlowPolicy.getInstance())
+            val statements = PsiTreeUtil.findChildrenOfType(method, PsiStatement::class.java).size
+            PlatformTestUtil.startPerformanceTest("Ssa$name", statements / 10) { constructSsa(controlFlow) }
+                .attempts(3)
+                .assertTiming()
+            val allocated = allocatedBytes { constructSsa(controlFlow) }
+            publish("Ssa$name", "allocatedBytes", allocated)
+            assertTrue("Ssa$name allocates $allocated bytes", allocated < statements.toLong() * MAX_SSA_ALLOCATED_PER_UNIT)
+        }
+    }
+
+    // builds the blocks and reads and writes all variables, like the SsaAnalyzer does for related ones
+    private fun constructSsa(controlFlow: ControlFlow) {
+        val ssaConstruction = SsaConstruction<Int>(controlFlow)
+        ssaConstruction.traverse(
+            { instruction, _, block -> ssaConstruction.readVariable(instruction.variable, block) },
+            { instruction, index, block -> ssaConstruction.writeVariable(instruction.variable, block, Holder(index)) }
+        )
+    }
+
+    /**
+     * Analyses the generated file, where [units] is the number of generated declarations or statements.
+     */
+    private fun doPerformanceTest(name: String, units: Int, expectedMs: Int, source: () -> String) {
+        val file = myFixture.configureByText("$name.java", source())
+        PlatformTestUtil.startPerformanceTest(name, expectedMs) { analyse(file) }
+            .setup { TypeData.release(file) }
+            .attempts(3)
+            .assertTiming()
+
+        TypeData.release(file)
+        val allocated = allocatedBytes { analyse(file) }
+        publish(name, "allocatedBytes", allocated)
+        assertTrue("$name allocates $allocated bytes", allocated < units.toLong() * MAX_ALLOCATED_PER_UNIT)
+        val retained = retainedBytes(TypeData.forFile(file))
+        publish(name, "retainedBytes", retained)
+        assertTrue("$name retains $retained bytes", retained < units.toLong() * MAX_RETAINED_PER_UNIT)
+        TypeData.release(file)
+    }
+
+    private fun analyse(file: PsiFile) {
+        TypeData.forFile(file).forEachProblem(file) { _, _ -> }
+    }
+
+    /**
+     * Returns the bytes allocated by the threads that run the analysis while running [action].
+     *
+     * The code blocks of a file are analysed concurrently on the common fork-join pool by the `JobLauncher`.
+     * Only the calling thread and the workers of that pool are measured, the other threads of the IDE are not.
+     * The pool is quiesced before and after, so tasks submitted by others don't overlap with the analysis.
+     */
+    private inline fun allocatedBytes(action: () -> Unit): Long {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        ForkJoinPool.commonPool().awaitQuiescence(1, TimeUnit.MINUTES)
+        val before = allocatedByAnalysingThreads(threads)
+        action()
+        ForkJoinPool.commonPool().awaitQuiescence(1, TimeUnit.MINUTES)
+        val after = allocatedByAnalysingThreads(threads)
+        // workers started during the action didn't allocate anything before
+        return after.entries.sumOf { (id, bytes) -> bytes - (before[id] ?: 0L) }
+    }
+
+    private fun allocatedByAnalysingThreads(threads: com.sun.management.ThreadMXBean): Map<Long, Long> {
+        val current = Thread.currentThread()
+        val ids = Thread.getAllStackTraces().keys
+            .filter { it === current || (it is ForkJoinWorkerThread && it.pool === ForkJoinPool.commonPool()) }
+            .map { it.id }
+            .toLongArray()
+        val bytes = threads.getThreadAllocatedBytes(ids)
+        // threads that terminated in between are reported as -1
+        return ids.indices.filter { bytes[it] >= 0 }.associate { ids[it] to bytes[it] }
+    }
+
+    /**
+     * Publishes a measurement of the test [name], printed next to the timings of [PlatformTestUtil].
+     * On TeamCity, it is reported as a build statistic, so it can be tracked over time like the timings.
+     */
+    private fun publish(name: String, metric: String, value: Long) {
+        println("$name: $metric = $value")
+        if (UsefulTestCase.IS_UNDER_TEAMCITY) {
+            println("##teamcity[buildStatisticValue key='$name.$metric' value='$value']")
+        }
+    }
+
+    /**
+     * Estimates the size of all objects reachable from [root], assuming compressed references.
+     *
+     * PSI, projects and other objects that exist independently of the analysis are not followed,
+     * neither are weak and soft references.
+     */
+    private fun retainedBytes(root: Any): Long {
+        val visited = Collections.newSetFromMap(IdentityHashMap<Any, Boolean>())
+        val pending = ArrayDeque<Any>()
+        pending.add(root)
+        var bytes = 0L
+        while (pending.isNotEmpty()) {
+            val current = pending.removeLast()
+            if (!visited.add(current) || isShared(current)) continue
+            val type = current.javaClass
+            if (type.isArray) {
+                val length = ReflectArray.getLength(current)
+                val componentType = type.componentType
+                bytes += align(16L + length.toLong() * sizeOf(componentType))
+                if (!componentType.isPrimitive) {
+                    for (index in 0..<length) {
+                        ReflectArray.get(current, index)?.let { pending.add(it) }
+                    }
+                }
+                continue
+            }
+            val fields = instanceFields(type)
+            bytes += align(12L + fields.sumOf { sizeOf(it.type).toLong() })
+            for (field in fields) {
+                // the referent of a weak or soft reference is not retained by it
+                if (field.type.isPrimitive || field.declaringClass == Reference::class.java) continue
+                if (!field.trySetAccessible()) continue
+                field.get(current)?.let { pending.add(it) }
+            }
+        }
+        return bytes
+    }
+
+    private fun isShared(value: Any) = value is PsiElement || value is PsiManager || value is ComponentManager
+            || value is GlobalSearchScope || value is Class<*> || value is ClassLoader || value is Thread
+            || value is Enum<*>
+
+    private fun instanceFields(type: Class<*>): List<Field> {
+        return generateSequence(type) { it.superclass }
+            .flatMap { it.declaredFields.asSequence() }
+            .filter { !Modifier.isStatic(it.modifiers) }
+            .toList()
+    }
+
+    private fun sizeOf(type: Class<*>) = when (type) {
+        java.lang.Long.TYPE, java.lang.Double.TYPE -> 8
+        java.lang.Short.TYPE, java.lang.Character.TYPE -> 2
+        java.lang.Byte.TYPE, java.lang.Boolean.TYPE -> 1
+        else -> 4
+    }
+
+    private fun align(bytes: Long) = (bytes + 7) and 7L.inv()
+
+    private fun manyFinalFields(count: Int) = javaClass(
+        (0..<count).joinToString("\n") {
+            """
+            private static final MethodType MT_$it = MethodType.methodType(int.class, long.class, String.class);
+            private static final MethodHandle MH_$it = MethodHandles.dropArguments(MethodHandles.constant(int.class, $it), 0, MT_$it.parameterList());
+            private static final StructLayout S_$it = MemoryLayout.structLayout(ValueLayout.JAVA_INT.withName("a"), ValueLayout.JAVA_INT.withName("b"), ValueLayout.JAVA_LONG.withName("c"));
+            private static final VarHandle VH_$it = S_$it.varHandle(MemoryLayout.PathElement.groupElement("c"));
+            """.trimIndent()
+        }
+    )
+
+    private fun longMethodTypeChain(length: Int) = javaClass(
+        """
+        void chain() {
+            MethodType type = MethodType.methodType(void.class);
+            MethodHandle handle = MethodHandles.empty(type);
+        ${(0..<length).joinToString("\n") {
+            "    type = type.appendParameterTypes(int.class).changeReturnType(long.class);\n" +
+                    "    handle = MethodHandles.dropArguments(handle, 0, int.class);"
+        }}
+        }
+        """.trimIndent()
+    )
+
+    private fun deepStructLayouts(depth: Int, count: Int) = javaClass(
+        (0..<count).joinToString("\n") { index ->
+            val layout = (0..<depth).fold("ValueLayout.JAVA_LONG") { inner, level ->
+                "MemoryLayout.structLayout(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, $inner.withName(\"l$level\"))"
+            }
+            "private static final MemoryLayout L_$index = $layout;"
+        }
+    )
+
+    private fun largeSwitchInLoop(cases: Int) = javaClass(
+        """
+        MethodHandle loop(int n) {
+            MethodHandle handle = MethodHandles.constant(int.class, 0);
+            for (int i = 0; i < n; i++) {
+                switch (i % $cases) {
+        ${(0..<cases).joinToString("\n") {
+            "            case $it -> handle = MethodHandles.dropArguments(handle, 0, ${if (it % 2 == 0) "int" else "long"}.class);"
+        }}
+                    default -> handle = MethodHandles.dropReturn(handle);
+                }
+                handle = switch (i % $cases) {
+        ${(0..<cases).joinToString("\n") { "            case $it -> handle.asType(handle.type());" }}
+                    default -> handle;
+                };
+            }
+            return handle;
+        }
+        """.trimIndent()
+    )
+
+    private fun javaClass(body: String) = """
+        |import java.lang.foreign.*;
+        |import java.lang.invoke.*;
+        |
+        |class Generated {
+        |${body.prependIndent("    ")}
+        |}
+        """.trimMargin()
+
+    private companion object {
+        // building control flow and resolving calls dominates, the analysis itself adds little to it
+        const val MAX_ALLOCATED_PER_UNIT = 64 * 1024
+
+        // a declaration or statement records a few expressions, their types are mostly shared
+        const val MAX_RETAINED_PER_UNIT = 2 * 1024
+
+        // the blocks are stored in arrays, a statement adds a few instructions and a definition per variable
+        const val MAX_SSA_ALLOCATED_PER_UNIT = 1024
+    }
+}
@@ -0,0 +1,88 @@
+package de.sirywell.handlehints.mhtype
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import com.intellij.openapi.util.io.FileUtil
+import de.sirywell.handlehints.batch.BatchAnalysis
+import de.sirywell.handlehints.batch.BatchOptions
+import de.sirywell.handlehints.batch.ReportFormat
+import de.sirywell.handlehints.batch.ReportWriter
+import java.nio.file.Files
+import java.nio.file.Path
+
+class BatchAnalysisTest : TypeAnalysisTestBase() {
+
+    fun testReport() {
+        addFiles()
+        val (result, lines) = runBatchAnalysis(null)
+        assertEquals(2, result.analysed)
+        assertEquals(0, result.skipped)
+        assertEquals(0, result.failed)
+        val problems = lines.filter { it["type"].asString == "problem" }
+            .map { it["inspection"].asString to it["message"].asString }
+            .sortedBy { it.first }
+        assertEquals(
+            listOf(
+                "MhInvocation" to "Wrong number of arguments. Expected 0 but got 1.",
+                "MhMerge" to "Position argument value 1 is out of bounds [0, 0]."
+            ),
+            problems
+        )
+        assertEquals(2, lines.count { it["type"].asString == "file" })
+        assertSummary(lines.last(), result)
+        // the summary has the metrics counted during the run
+        val metrics = lines.last()["metrics"].asJsonObject
+        assertTrue(metrics["BLOCKS_ANALYSED"].asLong >= 2)
+    }
+
+    fun testTimeoutSkipsFiles() {
+        addFiles()
+        // the deadline has passed before the first file is started
+        val (result, lines) = runBatchAnalysis(0)
+        assertEquals(0, result.analysed)
+        assertEquals(2, result.skipped)
+        assertEquals(0, result.failed)
+        assertEquals(listOf("summary"), lines.map { it["type"].asString })
+        assertSummary(lines.last(), result)
+    }
+
+    private fun assertSummary(summary: JsonObject, result: BatchAnalysis.Result) {
+        assertEquals("summary", summary["type"].asString)
+        assertEquals(result.analysed, summary["analysed"].asInt)
+        assertEquals(result.skipped, summary["skipped"].asInt)
+        assertEquals(result.failed, summary["failed"].asInt)
+    }
+
+    private fun runBatchAnalysis(timeoutSeconds: Long?): Pair<BatchAnalysis.Result, List<JsonObject>> {
+        val output = FileUtil.createTempFile("report", ".jsonl", true).toPath()
+        val options = BatchOptions(Path.of("project"), output, ReportFormat.JSON_LINES, 2, timeoutSeconds)
+        val result = ReportWriter.create(options.format, output).use { BatchAnalysis(project, options).run(it) }
+        val lines = Files.readAllLines(output).map { JsonParser.parseString(it).asJsonObject }
+        return result to lines
+    }
+
+    private fun addFiles() {
+        myFixture.addFileToProject(
+            "Invocations.java", """
+            import java.lang.invoke.*;
+
+            class Invocations {
+                void invoke() throws Throwable {
+                    MethodHandles.zero(void.class).invokeExact(1);
+                }
+            }
+            """.trimIndent()
+        )
+        myFixture.addFileToProject(
+            "Merges.java", """
+            import java.lang.invoke.*;
+
+            class Merges {
+                MethodHandle drop() {
+                    return MethodHandles.dropArguments(MethodHandles.zero(void.class), 1, int.class);
+                }
+            }
+            """.trimIndent()
+        )
+    }
+}
@@ -0,0 +1,82 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.analysis.AnalysisScope
+import com.intellij.codeInspection.GlobalInspectionTool
+import com.intellij.codeInspection.ex.GlobalInspectionToolWrapper
+import com.intellij.psi.PsiJavaFile
+import com.intellij.testFramework.InspectionTestUtil
+import com.intellij.testFramework.createGlobalContextForTool
+import de.sirywell.handlehints.dfa.MhTypeProvider
+import de.sirywell.handlehints.inspection.MethodHandleInvocationBatchInspection
+import de.sirywell.handlehints.inspection.MethodHandleMergeBatchInspection
+
+class BatchInspectionTest : TypeAnalysisTestBase() {
+
+    fun testFamiliesAreReportedSeparately() {
+        addFiles()
+        assertEquals(
+            listOf("Wrong number of arguments. Expected 0 but got 1."),
+            runBatchInspection(MethodHandleInvocationBatchInspection())
+        )
+        assertEquals(
+            listOf("Position argument value 1 is out of bounds [0, 0]."),
+            runBatchInspection(MethodHandleMergeBatchInspection())
+        )
+    }
+
+    fun testResultsAreReleased() {
+        val (invocations, merges) = addFiles()
+        runBatchInspection(MethodHandleMergeBatchInspection())
+        // the batch inspection is the only one enabled, and no file is open in an editor
+        for (file in listOf(invocations, merges)) {
+            for (method in file.classes.single().methods) {
+                assertNull(method.getUserData(MhTypeProvider.CACHE_KEY))
+            }
+        }
+    }
+
+    fun testResultsOfOpenFilesAreKept() {
+        val (invocations, merges) = addFiles()
+        myFixture.openFileInEditor(merges.virtualFile)
+        runBatchInspection(MethodHandleMergeBatchInspection())
+        // the editor highlighting uses the result of the open file
+        assertNotNull(merges.classes.single().methods.single().getUserData(MhTypeProvider.CACHE_KEY))
+        for (method in invocations.classes.single().methods) {
+            assertNull(method.getUserData(MhTypeProvider.CACHE_KEY))
+        }
+    }
+
+    private fun addFiles(): Pair<PsiJavaFile, PsiJavaFile> {
+        val invocations = myFixture.addFileToProject(
+            "Invocations.java", """
+            import java.lang.invoke.*;
+
+            class Invocations {
+                void invoke() throws Throwable {
+                    MethodHandles.zero(void.class).invokeExact(1);
+                }
+            }
+            """.trimIndent()
+        )
+        val merges = myFixture.addFileToProject(
+            "Merges.java", """
+            import java.lang.invoke.*;
+
+            class Merges {
+                MethodHandle drop() {
+                    return MethodHandles.dropArguments(MethodHandles.zero(void.class), 1, int.class);
+                }
+            }
+            """.trimIndent()
+        )
+        return invocations as PsiJavaFile to merges as PsiJavaFile
+    }
+
+    private fun runBatchInspection(tool: GlobalInspectionTool): List<String> {
+        val toolWrapper = GlobalInspectionToolWrapper(tool)
+        val scope = AnalysisScope(project)
+        val context = createGlobalContextForTool(scope, project, listOf(toolWrapper))
+        InspectionTestUtil.runTool(toolWrapper, scope, context)
+        return context.getPresentation(toolWrapper).problemDescriptors.map { it.descriptionTemplate }
+    }
+}
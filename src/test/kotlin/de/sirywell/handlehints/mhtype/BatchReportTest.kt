@@ -0,0 +1,109 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.codeInspection.ProblemHighlightType
+import de.sirywell.handlehints.batch.BatchOptions
+import de.sirywell.handlehints.batch.FileReport
+import de.sirywell.handlehints.batch.ReportFormat
+import de.sirywell.handlehints.batch.ReportWriter
+import de.sirywell.handlehints.batch.ReportedProblem
+import de.sirywell.handlehints.dfa.AnalysisMetrics.Counter
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.file.Files
+import java.nio.file.Path
+
+class BatchReportTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    @Test
+    fun jsonLinesReport() = doReportTest(ReportFormat.JSON_LINES, "report.jsonl")
+
+    @Test
+    fun sarifReport() = doReportTest(ReportFormat.SARIF, "report.sarif")
+
+    @Test
+    fun parseDefaults() {
+        val options = BatchOptions.parse(listOf("project", "report.jsonl"))
+        assertNotNull(options)
+        assertEquals(Path.of("project"), options!!.projectPath)
+        assertEquals(Path.of("report.jsonl"), options.output)
+        assertEquals(ReportFormat.JSON_LINES, options.format)
+        assertEquals(Runtime.getRuntime().availableProcessors(), options.threads)
+        assertNull(options.timeoutSeconds)
+    }
+
+    @Test
+    fun parseFlags() {
+        // flags can appear anywhere between the positional arguments
+        val options = BatchOptions.parse(listOf("--format=sarif", "project", "--threads=3", "report.sarif", "--timeout=60"))
+        assertNotNull(options)
+        assertEquals(Path.of("project"), options!!.projectPath)
+        assertEquals(Path.of("report.sarif"), options.output)
+        assertEquals(ReportFormat.SARIF, options.format)
+        assertEquals(3, options.threads)
+        assertEquals(60L, options.timeoutSeconds)
+    }
+
+    @Test
+    fun parseInvalid() {
+        for (args in listOf(
+            listOf<String>(),
+            listOf("project"),
+            listOf("project", "report.jsonl", "other"),
+            listOf("project", "report.jsonl", "--format=xml"),
+            listOf("project", "report.jsonl", "--format"),
+            listOf("project", "report.jsonl", "--threads=0"),
+            listOf("project", "report.jsonl", "--threads=many"),
+            listOf("project", "report.jsonl", "--timeout=-1"),
+            listOf("project", "report.jsonl", "--verbose"),
+        )) {
+            assertNull("$args", BatchOptions.parse(args))
+        }
+    }
+
+    private fun doReportTest(format: ReportFormat, expectedFile: String) {
+        val output = temporaryFolder.root.toPath().resolve(expectedFile)
+        ReportWriter.create(format, output).use { writer ->
+            writer.write(
+                FileReport(
+                    "src/Invocations.java", 12, listOf(
+                        problem("MhInvocation", "src/Invocations.java", 4, 8, 42,
+                            "Wrong number of arguments. Expected 0 but got 1.",
+                            ProblemHighlightType.GENERIC_ERROR_OR_WARNING)
+                    )
+                )
+            )
+            writer.write(
+                FileReport(
+                    "src/Merges.java", 3, listOf(
+                        problem("MhMerge", "src/Merges.java", 4, 55, 1,
+                            "Position argument value 1 is out of bounds [0, 0].",
+                            ProblemHighlightType.WEAK_WARNING),
+                        problem("MhMerge", "src/Merges.java", 8, 60, 10,
+                            "Type must not be void.",
+                            ProblemHighlightType.ERROR)
+                    )
+                )
+            )
+            writer.write(FileReport("src/Empty.java", 0, listOf()))
+            writer.finish(3, 1, 0, 20, mapOf(Counter.BLOCKS_ANALYSED to 5L, Counter.LOOP_ROUNDS to 2L))
+        }
+        val expected = Files.readString(Path.of("src/test/testData/batch", expectedFile))
+        assertEquals(expected, Files.readString(output))
+    }
+
+    private fun problem(
+        inspection: String,
+        path: String,
+        line: Int,
+        column: Int,
+        length: Int,
+        message: String,
+        highlightType: ProblemHighlightType
+    ) = ReportedProblem(inspection, path, line, column, length, message, highlightType)
+}
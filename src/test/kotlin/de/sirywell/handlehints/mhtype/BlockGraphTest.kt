@@ -0,0 +1,147 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiMethod
+import com.intellij.psi.PsiStatement
+import com.intellij.psi.controlFlow.AllVariablesControlFlowPolicy
+import com.intellij.psi.controlFlow.ControlFlow
+import com.intellij.psi.controlFlow.ControlFlowFactory
+import com.intellij.psi.util.PsiTreeUtil
+import de.sirywell.handlehints.dfa.BlockGraph
+import de.sirywell.handlehints.dfa.SsaConstruction.Block
+
+class BlockGraphTest : TypeAnalysisTestBase() {
+
+    fun testReversePostorder() {
+        val (controlFlow, graph) = build(
+            """
+            int m(boolean a, int x) {
+                if (a) {
+                    x = 1;
+                } else {
+                    x = 2;
+                }
+                return x;
+            }
+            """
+        )
+        assertReversePostorder(graph)
+        assertEmpty(graph.loopHeaders)
+        // the return is reached from both branches, so it comes after both of them
+        val join = blockOf(controlFlow, graph, statement("return x;"))
+        assertEquals(2, graph.predecessorCount(join))
+        assertEquals(graph.size, graph.reversePostorder.size)
+        assertEquals(join.id, graph.reversePostorder.last())
+    }
+
+    fun testNestedLoops() {
+        val (controlFlow, graph) = build(
+            """
+            void m(boolean a, boolean b, int x) {
+                while (a) {
+                    while (b) {
+                        x++;
+                    }
+                }
+            }
+            """
+        )
+        assertReversePostorder(graph)
+        val outer = blockOf(controlFlow, graph, statement("while (a)"))
+        val inner = blockOf(controlFlow, graph, statement("while (b)"))
+        assertEquals(listOf(outer, inner), graph.loopHeaders)
+        // entered from before the loop and from the end of the loop body
+        assertEquals(2, graph.predecessorCount(outer))
+        assertEquals(2, graph.predecessorCount(inner))
+    }
+
+    fun testContinueOuterLoop() {
+        val (controlFlow, graph) = build(
+            """
+            void m(boolean a, boolean b, boolean c, int x) {
+                outer:
+                while (a) {
+                    while (b) {
+                        if (c) continue outer;
+                        x++;
+                    }
+                }
+            }
+            """
+        )
+        assertReversePostorder(graph)
+        val outer = blockOf(controlFlow, graph, statement("while (a)"))
+        val inner = blockOf(controlFlow, graph, statement("while (b)"))
+        assertEquals(listOf(outer, inner), graph.loopHeaders)
+        // entered from before the loop, from the end of the loop body and from the continue in the inner loop
+        assertEquals(3, graph.predecessorCount(outer))
+        val continueBlock = blockOf(controlFlow, graph, statement("continue outer;"))
+        assertTrue((0 until graph.predecessorCount(outer)).any { graph.predecessor(outer, it) == continueBlock })
+    }
+
+    fun testSwitchFallthroughInLoop() {
+        // Java code has no irreducible loops, but a fallthrough enters a case from two sides
+        val (controlFlow, graph) = build(
+            """
+            void m(boolean a, int k, int x) {
+                while (a) {
+                    switch (k) {
+                        case 0:
+                            x = 0;
+                        case 1:
+                            x = 1;
+                            break;
+                        default:
+                            x = 2;
+                    }
+                }
+            }
+            """
+        )
+        assertReversePostorder(graph)
+        val header = blockOf(controlFlow, graph, statement("while (a)"))
+        assertEquals(listOf(header), graph.loopHeaders)
+        val fallthrough = blockOf(controlFlow, graph, statement("x = 1;"))
+        assertEquals(2, graph.predecessorCount(fallthrough))
+        val previousCase = blockOf(controlFlow, graph, statement("x = 0;"))
+        assertTrue((0 until graph.predecessorCount(fallthrough)).any { graph.predecessor(fallthrough, it) == previousCase })
+    }
+
+    private lateinit var method: PsiMethod
+
+    private fun build(methodText: String): Pair<ControlFlow, BlockGraph> {
+        val file = myFixture.configureByText("Flow.java", "class Flow {\n${methodText.trimIndent()}\n}")
+        method = PsiTreeUtil.findChildOfType(file, PsiMethod::class.java)!!
+        val controlFlow = ControlFlowFactory.getInstance(project)
+            .getControlFlow(method.body!!, AllVariablesControlFlowPolicy.getInstance())
+        return controlFlow to BlockGraph.build(controlFlow)
+    }
+
+    private fun statement(prefix: String): PsiStatement {
+        return PsiTreeUtil.findChildrenOfType(method, PsiStatement::class.java).first { it.text.startsWith(prefix) }
+    }
+
+    private fun blockOf(controlFlow: ControlFlow, graph: BlockGraph, element: PsiElement): Block {
+        val offset = controlFlow.getStartOffset(element)
+        return (1 until graph.size).map { Block(it) }
+            .single { graph.firstInstruction(it) <= offset && offset < graph.endInstruction(it) }
+    }
+
+    /**
+     * Each reachable block is visited once, after at least one of its predecessors,
+     * and only loop headers have predecessors that are visited after them.
+     */
+    private fun assertReversePostorder(graph: BlockGraph) {
+        val order = graph.reversePostorder
+        assertEquals(BlockGraph.ENTRY.id, order.first())
+        assertEquals(order.size, order.distinct().size)
+        val position = order.withIndex().associate { (index, block) -> block to index }
+        for (id in order.drop(1)) {
+            val block = Block(id)
+            val predecessors = (0 until graph.predecessorCount(block)).mapNotNull { position[graph.predecessor(block, it).id] }
+            assertTrue("block $id is visited before all its predecessors", predecessors.any { it < position[id]!! })
+            val hasBackEdge = predecessors.any { it >= position[id]!! }
+            assertEquals("block $id", hasBackEdge, block in graph.loopHeaders)
+        }
+    }
+}
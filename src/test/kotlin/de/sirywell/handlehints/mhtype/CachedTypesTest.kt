@@ -0,0 +1,141 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.JavaPsiFacade
+import com.intellij.psi.PsiClassType
+import com.intellij.psi.PsiDeclarationStatement
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.PsiExpression
+import com.intellij.psi.PsiLocalVariable
+import com.intellij.psi.PsiMethod
+import com.intellij.psi.PsiStatement
+import com.intellij.psi.PsiTypes
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.ProjectScope
+import com.intellij.testFramework.GCWatcher
+import de.sirywell.handlehints.TypeData
+import de.sirywell.handlehints.TypeTable
+import de.sirywell.handlehints.dfa.MhTypeProvider
+import de.sirywell.handlehints.type.ExactType
+import de.sirywell.handlehints.type.MethodHandleType
+
+class CachedTypesTest : TypeAnalysisTestBase() {
+
+    fun testEditOtherMember() {
+        configureEdited()
+        val first = method("first")
+        val second = method("second")
+        val firstType = typeOfInitializer(first.body!!.statements.single())
+        val secondType = typeOfInitializer(second.body!!.statements.single())
+        // the types are interned, so both blocks share the type of Foo
+        assertSame(firstType.returnType, secondType.returnType)
+        val secondTable = MhTypeProvider.typeTableFor(second)
+
+        // removing the statement invalidates the reference to Foo in the first method
+        removeStatementOf(first)
+
+        // the block of the second method is unchanged, so its cached result is still used
+        assertSame(secondTable, MhTypeProvider.typeTableFor(second))
+        val cachedType = typeOfInitializer(second.body!!.statements.single())
+        val fooType = (cachedType.returnType as ExactType).psiType
+        assertTrue(fooType.isValid)
+        assertEquals(myFixture.findClass("Edited.Foo"), (fooType as PsiClassType).resolve())
+    }
+
+    fun testRemovedCodeIsCollected() {
+        configureEdited()
+        val first = method("first")
+        val second = method("second")
+        typeOfInitializer(first.body!!.statements.single())
+        typeOfInitializer(second.body!!.statements.single())
+        val removed = GCWatcher.tracking(first.body!!.statements.single())
+
+        removeStatementOf(first)
+
+        // the cached results must not keep the removed code reachable
+        assertNotNull(MhTypeProvider.typeTableFor(second))
+        removed.ensureCollected()
+    }
+
+    fun testFieldsWithSameName() {
+        myFixture.configureByText(
+            "SameName.java", """
+            class SameName {
+                final int value;
+
+                static class Nested {
+                    final int value;
+                }
+
+                void m() {}
+            }
+            """.trimIndent()
+        )
+        val outer = myFixture.findClass("SameName")
+        val outerField = outer.findFieldByName("value", false)!!
+        val nestedField = myFixture.findClass("SameName.Nested").findFieldByName("value", false)!!
+        val method = outer.findMethodsByName("m", false).single()
+        val intType = ExactType(PsiTypes.intType())
+        val longType = ExactType(PsiTypes.longType())
+        // fields declared outside the analysed member are not identified by their name
+        val table = TypeTable.create(method, mapOf(outerField to intType, nestedField to longType), mapOf())
+        assertSame(intType, table[method, outerField])
+        assertSame(longType, table[method, nestedField])
+    }
+
+    fun testTypesAreInternedPerResolveScope() {
+        val factory = JavaPsiFacade.getElementFactory(project)
+        val allScope = GlobalSearchScope.allScope(project)
+        val librariesScope = ProjectScope.getLibrariesScope(project)
+        val inAll = ExactType(factory.createTypeByFQClassName("java.util.List", allScope))
+        assertSame(inAll, ExactType(factory.createTypeByFQClassName("java.util.List", allScope)))
+        // the same name can refer to a different class in another scope
+        val inLibraries = ExactType(factory.createTypeByFQClassName("java.util.List", librariesScope))
+        assertNotSame(inAll, inLibraries)
+        assertEquals(librariesScope, inLibraries.psiType.resolveScope)
+        // type arguments are rebuilt in the same scope
+        val listOfString = factory.createType(
+            JavaPsiFacade.getInstance(project).findClass("java.util.List", allScope)!!,
+            factory.createTypeByFQClassName("java.lang.String", allScope)
+        )
+        assertEquals("java.util.List<java.lang.String>", ExactType(listOfString).psiType.canonicalText)
+    }
+
+    private fun configureEdited() {
+        myFixture.configureByText(
+            "Edited.java", """
+            import java.lang.invoke.*;
+
+            class Edited {
+                static class Foo {}
+
+                void first() {
+                    MethodType type = MethodType.methodType(Foo.class, String.class);
+                }
+
+                void second() {
+                    MethodType type = MethodType.methodType(Foo.class, String.class);
+                }
+            }
+            """.trimIndent()
+        )
+    }
+
+    private fun method(name: String): PsiMethod {
+        return myFixture.findClass("Edited").findMethodsByName(name, false).single()
+    }
+
+    private fun removeStatementOf(method: PsiMethod) {
+        val removed = method.body!!.statements.single().textRange
+        WriteCommandAction.runWriteCommandAction(project) {
+            myFixture.editor.document.deleteString(removed.startOffset, removed.endOffset)
+            PsiDocumentManager.getInstance(project).commitAllDocuments()
+        }
+    }
+
+    private fun typeOfInitializer(statement: PsiStatement): MethodHandleType {
+        val variable = (statement as PsiDeclarationStatement).declaredElements.single() as PsiLocalVariable
+        val initializer: PsiExpression = variable.initializer!!
+        return TypeData.forFile(initializer.containingFile)(initializer)!!
+    }
+}
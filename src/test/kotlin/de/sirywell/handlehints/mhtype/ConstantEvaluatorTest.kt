@@ -0,0 +1,95 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.psi.PsiArrayInitializerExpression
+import com.intellij.psi.PsiEnumConstant
+import com.intellij.psi.PsiExpression
+import com.intellij.psi.PsiType
+import com.intellij.psi.util.PsiTreeUtil
+import de.sirywell.handlehints.ConstantEvaluator
+import de.sirywell.handlehints.dfa.AnalysisContext
+import de.sirywell.handlehints.dfa.AnalysisMetrics
+import de.sirywell.handlehints.getConstantLong
+
+class ConstantEvaluatorTest : TypeAnalysisTestBase() {
+
+    private lateinit var values: List<PsiExpression>
+
+    override fun setUp() {
+        super.setUp()
+        val file = myFixture.configureByText(
+            "Constants.java", """
+            import java.lang.annotation.ElementType;
+
+            class Constants {
+                static final byte BYTE = 2;
+                static final short SHORT = 3;
+                static final char CHAR = 'a';
+                static final int INT = 4;
+                static final long LONG = 5L;
+
+                void values(int parameter) {
+                    int local = 6;
+                    Object[] values = {
+                        1, (BYTE), SHORT, CHAR, INT, LONG, String.class, ElementType.FIELD, "s", local, parameter
+                    };
+                }
+            }
+            """.trimIndent()
+        )
+        values = PsiTreeUtil.findChildOfType(file, PsiArrayInitializerExpression::class.java)!!.initializers.asList()
+        AnalysisMetrics.reset()
+    }
+
+    fun testLiteral() {
+        assertEquals(1, ConstantEvaluator.constantOf(values[0], Int::class.javaObjectType))
+        assertEquals(1L, AnalysisMetrics[AnalysisMetrics.Counter.CONSTANTS_FROM_PSI])
+    }
+
+    fun testSmallIntegralTypesAreWidened() {
+        assertEquals(2, ConstantEvaluator.constantOf(values[1], Int::class.javaObjectType))
+        assertEquals(3, ConstantEvaluator.constantOf(values[2], Int::class.javaObjectType))
+        assertEquals('a'.code, ConstantEvaluator.constantOf(values[3], Int::class.javaObjectType))
+        assertEquals(listOf(2L, 3L, 'a'.code.toLong()), values.subList(1, 4).map { it.getConstantLong() })
+    }
+
+    fun testCompileTimeConstants() {
+        assertEquals(4, ConstantEvaluator.constantOf(values[4], Int::class.javaObjectType))
+        assertEquals(5L, ConstantEvaluator.constantOf(values[5], Long::class.javaObjectType))
+        assertEquals(5L, values[5].getConstantLong())
+        assertNull(ConstantEvaluator.constantOf(values[5], Int::class.javaObjectType))
+    }
+
+    fun testClassLiteral() {
+        val type = ConstantEvaluator.constantOf(values[6], PsiType::class.java)
+        assertEquals("java.lang.String", type?.canonicalText)
+    }
+
+    fun testEnumConstant() {
+        val constant = ConstantEvaluator.constantOf(values[7], PsiEnumConstant::class.java)
+        assertEquals("FIELD", constant?.name)
+    }
+
+    fun testString() {
+        assertEquals("s", ConstantEvaluator.constantOf(values[8], String::class.java))
+        assertNull(ConstantEvaluator.constantOf(values[8], Int::class.javaObjectType))
+    }
+
+    fun testDataflow() {
+        assertEquals(6, ConstantEvaluator.constantOf(values[9], Int::class.javaObjectType))
+        assertEquals(0L, AnalysisMetrics[AnalysisMetrics.Counter.CONSTANTS_FROM_PSI])
+        assertEquals(1L, AnalysisMetrics[AnalysisMetrics.Counter.CONSTANTS_FROM_DATAFLOW])
+    }
+
+    fun testNoConstant() {
+        assertNull(ConstantEvaluator.constantOf(values[10], Any::class.java))
+    }
+
+    fun testCachedWithinContext() {
+        AnalysisContext.run {
+            repeat(3) { assertNull(ConstantEvaluator.constantOf(values[10], Any::class.java)) }
+            repeat(3) { assertEquals(1, ConstantEvaluator.constantOf(values[0], Int::class.javaObjectType)) }
+        }
+        assertEquals(1L, AnalysisMetrics[AnalysisMetrics.Counter.CONSTANTS_FROM_DATAFLOW])
+        assertEquals(1L, AnalysisMetrics[AnalysisMetrics.Counter.CONSTANTS_FROM_PSI])
+    }
+}
@@ -0,0 +1,74 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.psi.PsiExpression
+import com.intellij.psi.PsiLocalVariable
+import com.intellij.psi.util.PsiTreeUtil
+import de.sirywell.handlehints.TypeData
+import de.sirywell.handlehints.inspection.MethodHandleEditInspection
+import de.sirywell.handlehints.inspection.MethodHandleInvokeInspection
+import de.sirywell.handlehints.type.MethodHandleType
+
+/**
+ * Handles obtained from other classes are analysed even if the file doesn't mention their type.
+ */
+class CrossClassHandleTest : TypeAnalysisTestBase() {
+
+    override fun setUp() {
+        super.setUp()
+        myFixture.addClass(
+            """
+            import java.lang.invoke.*;
+
+            public class Handles {
+                public static final MethodHandle MH = MethodHandles.zero(int.class);
+
+                public static MethodHandle get() {
+                    return MH;
+                }
+            }
+            """.trimIndent()
+        )
+    }
+
+    fun testCrossClassHandleWithoutMentionIsAnalysed() {
+        val file = myFixture.configureByText(
+            "Use.java", """
+            class Use {
+                void use() {
+                    var mh = Handles.get();
+                    var type = mh.type();
+                }
+            }
+            """.trimIndent()
+        )
+        val variables = PsiTreeUtil.findChildrenOfType(file, PsiLocalVariable::class.java).associateBy { it.name }
+        assertNotNull(typeOf(variables.getValue("mh").initializer!!))
+        assertNotNull(typeOf(variables.getValue("type").initializer!!))
+    }
+
+    fun testProblemsWithoutMentionAreReported() {
+        myFixture.configureByText(
+            "Use.java", """
+            class Use {
+                void use() throws Throwable {
+                    var mh = Handles.get();
+                    var varargs = mh.withVarargs(true);
+                    Object o = mh.invoke(1);
+                }
+            }
+            """.trimIndent()
+        )
+        // both the inspection that reports the problems of the whole file and the one visiting each call see them
+        myFixture.enableInspections(MethodHandleEditInspection(), MethodHandleInvokeInspection())
+        val messages = myFixture.doHighlighting().mapNotNull { it.description }
+        assertContainsElements(
+            messages,
+            "MethodHandle does not have any parameters.",
+            "Wrong number of arguments. Expected 0 but got 1."
+        )
+    }
+
+    private fun typeOf(expression: PsiExpression): MethodHandleType? {
+        return TypeData.forFile(expression.containingFile)(expression)
+    }
+}
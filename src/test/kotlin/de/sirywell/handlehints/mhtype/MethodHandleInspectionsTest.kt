@@ -10,8 +10,14 @@ class MethodHandleInspectionsTest : TypeAnalysisTestBase() {
 
     fun testFinalFields() = doTypeCheckingTest()
 
+    fun testFinalFieldsDeclaredLater() = doTypeCheckingTest()
+
     fun testInitialTypes() = doTypeCheckingTest()
 
+    fun testTrivialPhis() = doTypeCheckingTest()
+
+    fun testLoops() = doTypeCheckingTest()
+
     fun testLookupFindConstructor() = doTypeCheckingTest()
 
     fun testLookupFindGetter() = doTypeCheckingTest()
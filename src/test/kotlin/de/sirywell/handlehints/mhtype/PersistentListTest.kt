@@ -0,0 +1,129 @@
+package de.sirywell.handlehints.mhtype
+
+import de.sirywell.handlehints.type.PersistentList
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PersistentListTest {
+
+    @Test
+    fun concatAppendingStaysBalanced() {
+        var list = PersistentList.empty<Int>()
+        for (i in 0..<4_000) {
+            list = list.concat(listOf(i))
+        }
+        assertEquals((0..<4_000).toList(), list)
+        assertBalanced(list)
+    }
+
+    @Test
+    fun concatPrependingStaysBalanced() {
+        var list = PersistentList.empty<Int>()
+        for (i in 4_000 downTo 1) {
+            list = PersistentList.copyOf(listOf(i)).concat(list)
+        }
+        assertEquals((1..4_000).toList(), list)
+        assertBalanced(list)
+    }
+
+    @Test
+    fun concatTreesOfDifferentHeight() {
+        val large = PersistentList.copyOf((0..<10_000).toList())
+        for (smallSize in listOf(1, 31, 33, 100, 1_000)) {
+            val small = (0..<smallSize).map { -it }
+            val right = large.concat(small)
+            val left = PersistentList.copyOf(small).concat(large)
+            assertEquals((0..<10_000).toList() + small, right)
+            assertEquals(small + (0..<10_000).toList(), left)
+            assertBalanced(right)
+            assertBalanced(left)
+        }
+    }
+
+    @Test
+    fun subListAcrossChunks() {
+        val elements = (0..<100).toList()
+        val list = PersistentList.copyOf(elements)
+        // chunks hold 32 elements, so the bounds cover starts, ends and the middle of chunks
+        val bounds = listOf(0, 1, 31, 32, 33, 63, 64, 65, 99, 100)
+        for (from in bounds) {
+            for (to in bounds.filter { it >= from }) {
+                val subList = list.subList(from, to)
+                assertEquals("[$from, $to)", elements.subList(from, to), subList)
+                assertEquals("[$from, $to)", elements.subList(from, to).hashCode(), subList.hashCode())
+            }
+        }
+    }
+
+    @Test
+    fun removeRangeAcrossChunks() {
+        val elements = (0..<100).toList()
+        val list = PersistentList.copyOf(elements)
+        for ((index, n) in listOf(0 to 1, 0 to 32, 31 to 2, 30 to 40, 64 to 36, 99 to 1, 0 to 100, 50 to 0)) {
+            val expected = elements.subList(0, index) + elements.subList(index + n, elements.size)
+            assertEquals("$index+$n", expected, list.removeRange(index, n))
+        }
+    }
+
+    @Test
+    fun insertAllAtAcrossChunks() {
+        val elements = (0..<100).toList()
+        val list = PersistentList.copyOf(elements)
+        val inserted = (1000..<1040).toList()
+        for (index in listOf(0, 1, 31, 32, 33, 64, 99, 100)) {
+            val expected = elements.subList(0, index) + inserted + elements.subList(index, elements.size)
+            val actual = list.insertAllAt(index, inserted)
+            assertEquals("$index", expected, actual)
+            assertEquals("$index", expected.hashCode(), actual.hashCode())
+        }
+    }
+
+    @Test
+    fun setAtKeepsOriginal() {
+        val elements = (0..<100).toList()
+        val list = PersistentList.copyOf(elements)
+        val changed = list.setAt(40, -1)
+        assertEquals(elements, list)
+        assertEquals(-1, changed[40])
+        assertEquals(elements.toMutableList().also { it[40] = -1 }.hashCode(), changed.hashCode())
+    }
+
+    @Test
+    fun hashCodeMatchesList() {
+        assertEquals(listOf<String>().hashCode(), PersistentList.empty<String>().hashCode())
+        val elements = (0..<1_000).map { if (it % 7 == 0) null else "e$it" }
+        val list = PersistentList.copyOf(elements)
+        assertEquals(elements.hashCode(), list.hashCode())
+        // derived lists combine the cached hashes of the shared nodes
+        val derived = list.subList(10, 900).concat(list.subList(0, 10)).removeRange(100, 300)
+        val expected = (elements.subList(10, 900) + elements.subList(0, 10)).let { it.subList(0, 100) + it.subList(400, it.size) }
+        assertEquals(expected, derived)
+        assertEquals(expected.hashCode(), derived.hashCode())
+    }
+
+    @Test
+    fun equalsOtherLists() {
+        val elements = (0..<100).toList()
+        val list = PersistentList.copyOf(elements)
+        assertEquals(elements, list)
+        assertEquals(list, elements)
+        assertEquals(ArrayList(elements), list)
+        assertEquals(list, ArrayList(elements))
+        // different tree shapes with the same elements
+        assertEquals(list, list.subList(0, 50).concat(list.subList(50, 100)))
+        assertEquals(list, PersistentList.copyOf(elements.subList(0, 1)).concat(list.subList(1, 100)))
+        assertNotEquals(list, list.setAt(99, 100))
+        assertNotEquals(list, elements.subList(0, 99))
+        assertNotEquals(list.subList(0, 99), elements)
+        assertNotEquals(list, (0..<100).map { it.toLong() })
+    }
+
+    // the height of a balanced tree grows logarithmically with the number of its chunks,
+    // chunks are not necessarily full after concatenations, so bound it by the number of elements
+    private fun assertBalanced(list: PersistentList<*>) {
+        val maxHeight = 2 * (32 - Integer.numberOfLeadingZeros(list.size))
+        assertTrue("height ${list.height} for ${list.size} elements", list.height <= maxHeight)
+    }
+}
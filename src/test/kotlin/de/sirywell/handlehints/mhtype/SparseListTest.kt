@@ -0,0 +1,197 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.psi.PsiTypes
+import de.sirywell.handlehints.TriState
+import de.sirywell.handlehints.type.BotTypeList
+import de.sirywell.handlehints.type.CompleteTypeList
+import de.sirywell.handlehints.type.ExactType
+import de.sirywell.handlehints.type.IncompleteTypeList
+import de.sirywell.handlehints.type.SparseList
+import de.sirywell.handlehints.type.TopType
+import de.sirywell.handlehints.type.TopTypeList
+import de.sirywell.handlehints.type.Type
+import de.sirywell.handlehints.type.TypeList
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.SortedMap
+
+/**
+ * Checks [SparseList] and the operations of incomplete type lists that use it
+ * against the semantics of the sorted maps the known types were stored in before.
+ */
+class SparseListTest {
+    private val int: Type = ExactType(PsiTypes.intType())
+    private val long: Type = ExactType(PsiTypes.longType())
+    private val boolean: Type = ExactType(PsiTypes.booleanType())
+
+    // known types with gaps, at the start and in between
+    private val lists = listOf(
+        sortedMapOf(0 to int),
+        sortedMapOf(2 to long),
+        sortedMapOf(0 to int, 1 to long, 2 to boolean),
+        sortedMapOf(1 to int, 4 to long, 5 to boolean, 9 to int),
+    )
+
+    @Test
+    fun lookups() {
+        val list = SparseList.of(listOf("a", "b")).setAt(5, "f").setAt(3, "d")
+        assertEquals("{0=a, 1=b, 3=d, 5=f}", list.toString())
+        assertEquals("d", list[3])
+        assertNull(list[2])
+        assertNull(list[6])
+        assertEquals(5, list.lastKey())
+        assertEquals("{1=b, 3=d}", list.slice(1, 5).toString())
+        assertEquals("{0=a, 1=b, 5=d, 7=f}", list.shift(2, 2).toString())
+        assertSame(list, list.slice(0, 6))
+    }
+
+    @Test(expected = NoSuchElementException::class)
+    fun lastKeyOfEmpty() {
+        SparseList.empty<String>().lastKey()
+    }
+
+    @Test
+    fun unionCombinesSharedIndexes() {
+        val first = SparseList.of(0, "a").setAt(2, "c").setAt(4, "e")
+        val second = SparseList.of(1, "B").setAt(2, "C").setAt(6, "G")
+        assertEquals("{0=a, 1=B, 2=C, 4=e, 6=G}", first.union(second).toString())
+        assertEquals("{0=a, 1=B, 2=cC, 4=e, 6=G}", first.union(second) { a, b -> a + b }.toString())
+        assertSame(first, first.union(SparseList.empty()))
+        assertSame(second, SparseList.empty<String>().union(second))
+    }
+
+    @Test
+    fun dropFirst() {
+        for (map in lists) {
+            for (n in 0..4) {
+                assertEquals("$map, $n", dropFirst(map, n), known(incomplete(map).dropFirst(n)))
+            }
+        }
+    }
+
+    @Test
+    fun removeAt() {
+        for (map in lists) {
+            for (index in 0..4) {
+                for (n in 0..3) {
+                    assertEquals("$map, $index+$n", removeAt(map, index, n), known(incomplete(map).removeAt(index, n)))
+                }
+            }
+        }
+    }
+
+    @Test
+    fun addAllAtComplete() {
+        val added = listOf(boolean, boolean)
+        for (map in lists) {
+            for (index in 0..5) {
+                val actual = incomplete(map).addAllAt(index, CompleteTypeList(added))
+                assertEquals("$map, $index", addAllAtComplete(map, index, added), known(actual))
+            }
+        }
+    }
+
+    @Test
+    fun addAllAtIncomplete() {
+        val added = sortedMapOf(1 to boolean)
+        for (map in lists) {
+            for (index in 0..5) {
+                val actual = incomplete(map).addAllAt(index, incomplete(added))
+                assertEquals("$map, $index", addAllAtIncomplete(map, index, added), known(actual))
+            }
+        }
+    }
+
+    @Test
+    fun addAllAtTopOrBot() {
+        val map = lists.last()
+        assertSame(TopTypeList, incomplete(map).addAllAt(2, TopTypeList))
+        assertEquals(map.headMap(2), known(incomplete(map).addAllAt(2, BotTypeList)))
+    }
+
+    @Test
+    fun joinIncomplete() {
+        for (first in lists) {
+            for (second in lists) {
+                val (type, identical) = incomplete(first).joinIdentical(incomplete(second))
+                val (expectedType, expectedIdentical) = join(first, second)
+                assertEquals("$first, $second", expectedType, known(type))
+                assertEquals("$first, $second", expectedIdentical, identical)
+            }
+        }
+    }
+
+    @Test
+    fun joinWithComplete() {
+        val complete = CompleteTypeList(listOf(int, long, boolean))
+        // only the known types are joined, the others are kept
+        val matching = complete.joinIdentical(incomplete(sortedMapOf(0 to int, 2 to boolean)))
+        assertSame(complete, matching.type)
+        assertEquals(TriState.UNKNOWN, matching.identical)
+        val different = incomplete(sortedMapOf(2 to long)).joinIdentical(complete)
+        assertEquals(CompleteTypeList(listOf(int, long, TopType)), different.type)
+        assertEquals(TriState.NO, different.identical)
+        // the incomplete list is known to be larger than the complete one
+        val larger = complete.joinIdentical(incomplete(sortedMapOf(5 to int)))
+        assertSame(TopTypeList, larger.type)
+        assertEquals(TriState.NO, larger.identical)
+    }
+
+    private fun incomplete(map: SortedMap<Int, Type>): TypeList {
+        return map.entries.fold(SparseList.empty<Type>()) { list, (index, type) -> list.setAt(index, type) }
+            .let { IncompleteTypeList(it) }
+    }
+
+    private fun known(list: TypeList): SortedMap<Int, Type> {
+        val map = sortedMapOf<Int, Type>()
+        (list as IncompleteTypeList).knownTypes.forEach { index, type -> map[index] = type }
+        return map
+    }
+
+    // the previous implementations, based on sorted maps
+
+    private fun dropFirst(map: SortedMap<Int, Type>, n: Int): SortedMap<Int, Type> {
+        val mutableMap = map.toMutableMap()
+        (0..<n).forEach { mutableMap.remove(it) }
+        return mutableMap.mapKeys { it.key - n }.toSortedMap()
+    }
+
+    private fun removeAt(map: SortedMap<Int, Type>, index: Int, n: Int): SortedMap<Int, Type> {
+        val mutableMap = map.toMutableMap()
+        (0..<n).forEach { mutableMap.remove(index + it) }
+        return mutableMap.mapKeys { if (it.key >= index + n) it.key - n else it.key }.toSortedMap()
+    }
+
+    private fun addAllAtComplete(map: SortedMap<Int, Type>, index: Int, added: List<Type>): SortedMap<Int, Type> {
+        val moved = added.withIndex().associate { (i, type) -> i + index to type }
+        val shifted = map.mapKeys { if (it.key >= index) it.key + added.size else it.key }
+        return (moved + shifted).toSortedMap()
+    }
+
+    private fun addAllAtIncomplete(
+        map: SortedMap<Int, Type>,
+        index: Int,
+        added: SortedMap<Int, Type>
+    ): SortedMap<Int, Type> {
+        return (map.subMap(0, index) + added.mapKeys { it.key + index }).toSortedMap()
+    }
+
+    private fun join(first: SortedMap<Int, Type>, second: SortedMap<Int, Type>): Pair<SortedMap<Int, Type>, TriState> {
+        val joined = sortedMapOf<Int, Type>()
+        var identical = TriState.YES
+        for (index in first.keys + second.keys) {
+            val a = first[index]
+            val b = second[index]
+            joined[index] = if (a != null && b != null) {
+                val result = a.joinIdentical(b)
+                if (result.identical == TriState.NO) identical = TriState.NO
+                result.type
+            } else {
+                a ?: b
+            }
+        }
+        return joined to identical
+    }
+}
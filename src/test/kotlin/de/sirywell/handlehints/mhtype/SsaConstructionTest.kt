@@ -0,0 +1,49 @@
+package de.sirywell.handlehints.mhtype
+
+import com.intellij.psi.PsiCodeBlock
+import com.intellij.psi.PsiLocalVariable
+import com.intellij.psi.controlFlow.AllVariablesControlFlowPolicy
+import com.intellij.psi.controlFlow.ControlFlowFactory
+import com.intellij.psi.util.PsiTreeUtil
+import de.sirywell.handlehints.dfa.AnalysisMetrics
+import de.sirywell.handlehints.dfa.SsaConstruction
+import de.sirywell.handlehints.dfa.SsaConstruction.Holder
+import de.sirywell.handlehints.dfa.SsaConstruction.Value
+
+class SsaConstructionTest : TypeAnalysisTestBase() {
+
+    fun testCascadingTrivialPhis() {
+        val file = myFixture.configureByText(
+            "Nested.java", """
+            class Nested {
+                void m(int n) {
+                    Object value = "";
+                    for (int i = 0; i < n; i++) {
+                        for (int j = 0; j < n; j++) {
+                            Object read = value;
+                        }
+                    }
+                }
+            }
+            """.trimIndent()
+        )
+        val value = PsiTreeUtil.findChildrenOfType(file, PsiLocalVariable::class.java).single { it.name == "value" }
+        val body = PsiTreeUtil.getParentOfType(value, PsiCodeBlock::class.java)!!
+        val controlFlow = ControlFlowFactory.getInstance(project)
+            .getControlFlow(body, AllVariablesControlFlowPolicy.getInstance())
+        val ssaConstruction = SsaConstruction<String>(controlFlow)
+        val reads = mutableListOf<Value<String>?>()
+        AnalysisMetrics.reset()
+        ssaConstruction.traverse(
+            { instruction, _, block ->
+                if (instruction.variable == value) reads.add(ssaConstruction.readVariable(value, block))
+            },
+            { instruction, _, block ->
+                if (instruction.variable == value) ssaConstruction.writeVariable(value, block, Holder("written"))
+            }
+        )
+        // the phis of both loop headers only merge the written value with themselves
+        assertEquals(listOf(Holder("written")), reads)
+        assertEquals(2L, AnalysisMetrics[AnalysisMetrics.Counter.TRIVIAL_PHIS_REMOVED])
+    }
+}
@@ -0,0 +1,20 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+public class FinalFieldsDeclaredLater {
+
+    void m() {
+        <info descr="(int)void">MethodHandle a = <info descr="(int)void">MethodHandles.empty(A)</info>;</info>
+        <info descr="(int,long)void">MethodHandle b = <info descr="(int,long)void">MethodHandles.empty(B)</info>;</info>
+        <info descr="(String)int">MethodHandle c = <info descr="(String)int">MethodHandles.empty(C)</info>;</info>
+    }
+
+    <info descr="(int)void">private static final MethodType A = <info descr="(int)void">MethodType.methodType(void.class, int.class)</info>;</info>
+    <info descr="(int,long)void">private static final MethodType B = <info descr="(int,long)void">A.appendParameterTypes(long.class)</info>;</info>
+    <info descr="(String)int">private static final MethodType C;</info>
+
+    static {
+        <info descr="(String)int">C = <info descr="(String)int">MethodType.methodType(int.class, String.class)</info></info>;
+    }
+}
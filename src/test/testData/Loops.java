@@ -0,0 +1,24 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+public class Loops {
+
+    void changedInLoop(boolean b) {
+        <info descr="(int)void">MethodType mt = <info descr="(int)void">MethodType.methodType(void.class, int.class)</info>;</info>
+        while (b) {
+            <info descr="(int)⊤">MethodHandle mh = <info descr="(int)⊤">MethodHandles.empty(mt)</info>;</info>
+            <info descr="(int)int">mt = <info descr="(int)int">mt.changeReturnType(int.class)</info></info>;
+        }
+        <info descr="(int)⊤">MethodHandle after = <info descr="(int)⊤">MethodHandles.empty(mt)</info>;</info>
+    }
+
+    void unchangedInLoop(boolean b) {
+        <info descr="(int)void">MethodType mt = <info descr="(int)void">MethodType.methodType(void.class, int.class)</info>;</info>
+        while (b) {
+            <info descr="(int)void">MethodHandle mh = <info descr="(int)void">MethodHandles.empty(mt)</info>;</info>
+            <info descr="(int)void">mt = <info descr="(int)void">mt.changeReturnType(void.class)</info></info>;
+        }
+        <info descr="(int)void">MethodHandle after = <info descr="(int)void">MethodHandles.empty(mt)</info>;</info>
+    }
+}
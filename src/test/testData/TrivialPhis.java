@@ -0,0 +1,24 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+public class TrivialPhis {
+
+    void m(boolean b) {
+        <info descr="(int)void">MethodType mt = <info descr="(int)void">MethodType.methodType(void.class, int.class)</info>;</info>
+        if (b) {
+            System.out.println();
+        }
+        <info descr="(int)void">MethodHandle mh0 = <info descr="(int)void">MethodHandles.empty(mt)</info>;</info>
+        for (int i = 0; i < 3; i++) {
+            System.out.println(i);
+        }
+        <info descr="(int)void">MethodHandle mh1 = <info descr="(int)void">MethodHandles.empty(mt)</info>;</info>
+        // the phi of the inner loop is trivial, removing it makes the phi of the outer loop trivial too
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                <info descr="(int)void">MethodHandle mh2 = <info descr="(int)void">MethodHandles.empty(mt)</info>;</info>
+            }
+        }
+    }
+}